@@ -2,14 +2,109 @@ plugins {
     java
     application
     id("com.gradleup.shadow") version "9.0.0-beta13"
+    id("me.champeau.jmh") version "0.7.3"
 }
 
+// -PjavaVersion=21 builds and runs on a JDK 21 toolchain, which enables -Dchat.server.executor=virtual.
+// Bytecode stays at release 11 either way, so both variants share one source tree.
+val javaVersion = providers.gradleProperty("javaVersion").map(String::toInt).getOrElse(11)
+
 java {
     toolchain {
-        languageVersion.set(JavaLanguageVersion.of(11))
+        languageVersion.set(JavaLanguageVersion.of(javaVersion))
     }
 }
 
+tasks.withType<JavaCompile>().configureEach {
+    options.release.set(11)
+    options.encoding = "UTF-8"
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+// ./gradlew test runs src/test/java. Tests that start servers bind fixed loopback ports in the
+// 457xx range, so test classes must not run in parallel forks.
+tasks.test {
+    useJUnitPlatform()
+    maxParallelForks = 1
+    systemProperty("java.awt.headless", "true")
+    systemProperty("chat.metrics.jmx", "false")
+}
+
 application {
     mainClass.set("Main")
-}
\ No newline at end of file
+}
+
+// ./gradlew jmh runs src/jmh/java and writes JSON results that can be diffed between releases.
+jmh {
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+}
+
+// ./gradlew loadTest --args="--clients 2000 --rate 1 --duration 30" drives an embedded server headlessly.
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the headless load generator against an embedded server."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("LoadGenerator")
+    systemProperty("java.awt.headless", "true")
+    providers.gradleProperty("engine").orNull?.let { systemProperty("chat.server.engine", it) }
+}
+
+// Headless server start-up. ServerMain never loads AWT; recordServerClasses starts it once and
+// records every class it loads, and serverCdsArchive dumps those into an AppCDS archive, so a
+// restarted server maps them in instead of loading and verifying each one:
+//   java -XX:SharedArchiveFile=build/cds/server.jsa -cp build/libs/chat-app.jar ServerMain --port 5050
+// The JVM only uses the archive with the JDK that dumped it and the same jar path, and otherwise
+// starts without it. The archive is opt-in: build it with ./gradlew serverCdsArchive, or let runServer
+// build it, so an ordinary build never starts a server.
+val serverJar = tasks.jar.flatMap { it.archiveFile }
+val serverClassList = layout.buildDirectory.file("cds/server.classlist")
+val serverArchive = layout.buildDirectory.file("cds/server.jsa")
+
+val recordServerClasses by tasks.registering(JavaExec::class) {
+    group = "build"
+    description = "Starts a headless server once and records the classes it loads."
+    classpath = files(serverJar)
+    mainClass.set("ServerMain")
+    args("--port", "0", "--bind", "127.0.0.1", "--exit-when-ready")
+    outputs.file(serverClassList)
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-Xshare:off", "-XX:DumpLoadedClassList=${serverClassList.get().asFile}")
+    })
+    doFirst { serverClassList.get().asFile.parentFile.mkdirs() }
+}
+
+val serverCdsArchive by tasks.registering(JavaExec::class) {
+    group = "build"
+    description = "Dumps an AppCDS archive of the classes a headless server loads on start-up."
+    dependsOn(recordServerClasses)
+    classpath = files(serverJar)
+    mainClass.set("ServerMain")
+    inputs.file(serverClassList)
+    outputs.file(serverArchive)
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-Xshare:dump", "-XX:SharedClassListFile=${serverClassList.get().asFile}",
+                "-XX:SharedArchiveFile=${serverArchive.get().asFile}")
+    })
+}
+
+// ./gradlew runServer --args="--port 5050 --engine sharded" runs the headless server with the archive.
+tasks.register<JavaExec>("runServer") {
+    group = "application"
+    description = "Runs the headless server, mapping classes from the AppCDS archive."
+    dependsOn(serverCdsArchive)
+    classpath = files(serverJar)
+    mainClass.set("ServerMain")
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-XX:SharedArchiveFile=${serverArchive.get().asFile}")
+    })
+}
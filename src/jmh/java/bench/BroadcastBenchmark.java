@@ -0,0 +1,70 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Dispatches one CHAT packet through a running server, so each operation covers decode, history
+// append and fan-out to every joined loopback client. The clients never read; once their socket
+// buffers fill the kernel drops further datagrams, which keeps the numbers about the send side.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"CLASSIC", "NIO", "SHARDED"})
+    public String engine;
+
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    private Object server;
+    private DatagramChannel[] channels;
+    private InetSocketAddress sender;
+    private ByteBuffer packet;
+    private Object view;
+
+    @Setup
+    public void setup() throws Throwable {
+        int port;
+        try (var probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = (Object) Chat.CREATE_SERVER.invokeExact(Chat.engine(engine), (Object) port);
+        ((Thread) server).start();
+
+        var serverAddress = new InetSocketAddress("127.0.0.1", port);
+        var reply = ByteBuffer.allocate(65507);
+        channels = new DatagramChannel[clients];
+        for (int i = 0; i < clients; i++) {
+            channels[i] = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            var hello = "HELLO:" + System.currentTimeMillis() + "::user" + i;
+            channels[i].send(ByteBuffer.wrap(hello.getBytes(StandardCharsets.UTF_8)), serverAddress);
+            reply.clear();
+            channels[i].receive(reply);
+        }
+
+        sender = (InetSocketAddress) channels[0].getLocalAddress();
+        packet = ByteBuffer.wrap(("CHAT:" + System.currentTimeMillis() + ":user0:benchmark message").getBytes(StandardCharsets.UTF_8));
+        view = (Object) Chat.NEW_VIEW.invokeExact();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ((Closeable) server).close();
+        for (var channel : channels) channel.close();
+    }
+
+    @Benchmark
+    public void broadcast() throws Throwable {
+        Chat.ON_PACKET.invokeExact(server, (Object) sender, (Object) packet, view);
+    }
+}
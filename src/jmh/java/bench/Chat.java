@@ -0,0 +1,96 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+
+// The chat classes live in the unnamed package, which source in a named package cannot refer to
+// and which JMH will not generate benchmarks in. These handles bridge the gap; held in static finals
+// they are constants to the JIT, so a call compiles down to the same code as a direct one.
+final class Chat {
+    static final Class<?> MESSAGE = load("Message");
+    static final Class<?> MESSAGE_TYPE = load("Message$Type");
+    static final Class<?> MESSAGE_VIEW = load("MessageView");
+    static final Class<?> MESSAGE_RING = load("MessageRing");
+    static final Class<?> CHAT_SERVER = load("ChatServer");
+    static final Class<?> ENGINE = load("ChatServer$Engine");
+    static final Class<?> COMPRESSION = load("Compression");
+
+    static final MethodHandle NEW_MESSAGE = constructor(MESSAGE, String.class, String.class, MESSAGE_TYPE);
+    static final MethodHandle TO_NETWORK_STRING = method(MESSAGE, "toNetworkString");
+    static final MethodHandle FROM_NETWORK_STRING = method(MESSAGE, "fromNetworkString", String.class, String.class);
+    static final MethodHandle ENCODE = method(MESSAGE, "encode", boolean.class);
+    static final MethodHandle ENCODE_RAW = method(MESSAGE, "encode", MESSAGE_TYPE, Instant.class, String.class, byte[].class, boolean.class);
+    static final MethodHandle DECODE = method(MESSAGE, "decode", ByteBuffer.class, String.class);
+
+    static final MethodHandle NEW_VIEW = constructor(MESSAGE_VIEW);
+    static final MethodHandle WRAP = method(MESSAGE_VIEW, "wrap", ByteBuffer.class);
+
+    static final MethodHandle NEW_RING = constructor(MESSAGE_RING, int.class, int.class);
+    static final MethodHandle APPEND = method(MESSAGE_RING, "append", byte[].class, int.class);
+    static final MethodHandle SNAPSHOT = method(MESSAGE_RING, "snapshot", int.class);
+    static final MethodHandle READ = method(MESSAGE_RING, "read", long.class, int.class, int.class);
+    static final MethodHandle TAIL = method(MESSAGE_RING, "tail");
+
+    static final MethodHandle DEFLATE = method(COMPRESSION, "deflate", byte[].class, int.class, boolean.class, int.class);
+    static final MethodHandle INFLATE = method(COMPRESSION, "inflate", ByteBuffer.class);
+
+    static final MethodHandle CREATE_SERVER = method(CHAT_SERVER, "create", ENGINE, int.class);
+    static final MethodHandle ON_PACKET = method(CHAT_SERVER, "onPacket", InetSocketAddress.class, ByteBuffer.class, MESSAGE_VIEW);
+
+    private Chat() {
+    }
+
+    static Object type(String name) {
+        return constant(MESSAGE_TYPE, name);
+    }
+
+    static Object engine(String name) {
+        return constant(ENGINE, name);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object constant(Class<?> type, String name) {
+        return Enum.valueOf((Class) type, name);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = owner.getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            var handle = MethodHandles.lookup().unreflectConstructor(constructor);
+            return handle.asType(MethodType.genericMethodType(parameters.length));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Instance methods take the receiver as their first argument. Everything is erased to Object so
+    // callers can use invokeExact without naming the unnamed-package types.
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... parameters) {
+        try {
+            Method method = owner.getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            var handle = MethodHandles.lookup().unreflect(method);
+            var type = MethodType.genericMethodType(handle.type().parameterCount());
+            return handle.type().returnType() == void.class
+                    ? handle.asType(type.changeReturnType(void.class))
+                    : handle.asType(type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    private Object message;
+    private String networkString;
+    private byte[] binary;
+    private ByteBuffer textPacket;
+    private ByteBuffer binaryPacket;
+    private Object view;
+
+    @Setup
+    public void setup() throws Throwable {
+        message = (Object) Chat.NEW_MESSAGE.invokeExact((Object) "x".repeat(payloadSize), (Object) "alice", Chat.type("CHAT"));
+        networkString = (String) (Object) Chat.TO_NETWORK_STRING.invokeExact(message);
+        binary = (byte[]) (Object) Chat.ENCODE.invokeExact(message, (Object) true);
+        textPacket = ByteBuffer.wrap(networkString.getBytes(StandardCharsets.UTF_8));
+        binaryPacket = ByteBuffer.wrap(binary);
+        view = (Object) Chat.NEW_VIEW.invokeExact();
+    }
+
+    @Benchmark
+    public Object toNetworkString() throws Throwable {
+        return (Object) Chat.TO_NETWORK_STRING.invokeExact(message);
+    }
+
+    @Benchmark
+    public Object fromNetworkString() throws Throwable {
+        return (Object) Chat.FROM_NETWORK_STRING.invokeExact((Object) networkString, (Object) "Server");
+    }
+
+    @Benchmark
+    public Object encodeBinary() throws Throwable {
+        return (Object) Chat.ENCODE.invokeExact(message, (Object) true);
+    }
+
+    @Benchmark
+    public Object decodeBinary() throws Throwable {
+        return (Object) Chat.DECODE.invokeExact((Object) binaryPacket.duplicate(), (Object) "Server");
+    }
+
+    @Benchmark
+    public Object wrapText() throws Throwable {
+        return (Object) Chat.WRAP.invokeExact(view, (Object) textPacket);
+    }
+
+    @Benchmark
+    public Object wrapBinary() throws Throwable {
+        return (Object) Chat.WRAP.invokeExact(view, (Object) binaryPacket);
+    }
+}
@@ -0,0 +1,92 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// CPU cost of compressing a packet against the bytes it saves. The setup prints each payload's size
+// raw, deflated with the preset dictionary and deflated without it, so the bytes on the wire sit
+// next to the timings in the run's output.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    private static final int MAX_WELCOME_BYTES = 60000;
+    private static final String[] SENDERS = {"alice", "bob", "carol", "dave", "erin", "frank"};
+    private static final String[] WORDS = ("so I think we should ship the build today if the tests pass and then look at the bug"
+            + " in the login screen after lunch what do you think about that plan").split(" ");
+
+    // A CHAT of that many content bytes, or a full WELCOME snapshot of mixed history entries.
+    @Param({"80", "300", "1000", "welcome"})
+    public String payload;
+
+    private byte[] data;
+    private ByteBuffer compressed;
+
+    @Setup
+    public void setup() throws Throwable {
+        var random = new Random(42);
+        if (payload.equals("welcome")) {
+            var content = welcome(random).getBytes(StandardCharsets.UTF_8);
+            data = (byte[]) (Object) Chat.ENCODE_RAW.invokeExact(Chat.type("WELCOME"), (Object) Instant.now(), (Object) "Server", (Object) content, (Object) false);
+        } else {
+            var message = (Object) Chat.NEW_MESSAGE.invokeExact((Object) line(random, Integer.parseInt(payload)), (Object) "alice", Chat.type("CHAT"));
+            data = (byte[]) (Object) Chat.ENCODE.invokeExact(message, (Object) false);
+        }
+
+        var primed = deflate(true);
+        compressed = ByteBuffer.wrap(primed);
+        System.out.printf("%n%s: %d bytes raw, %d deflated with the dictionary, %d without%n",
+                payload, data.length, primed.length, deflate(false).length);
+    }
+
+    @Benchmark
+    public Object deflate() throws Throwable {
+        return (Object) Chat.DEFLATE.invokeExact((Object) data, (Object) data.length, (Object) true, (Object) (data.length + 64));
+    }
+
+    @Benchmark
+    public Object deflateWithoutDictionary() throws Throwable {
+        return (Object) Chat.DEFLATE.invokeExact((Object) data, (Object) data.length, (Object) false, (Object) (data.length + 64));
+    }
+
+    @Benchmark
+    public Object inflate() throws Throwable {
+        return (Object) Chat.INFLATE.invokeExact((Object) compressed.duplicate());
+    }
+
+    private byte[] deflate(boolean primed) throws Throwable {
+        return (byte[]) (Object) Chat.DEFLATE.invokeExact((Object) data, (Object) data.length, (Object) primed, (Object) (data.length + 64));
+    }
+
+    private static String welcome(Random random) {
+        var history = new StringBuilder();
+        var time = System.currentTimeMillis();
+        while (history.length() < MAX_WELCOME_BYTES) {
+            var sender = SENDERS[random.nextInt(SENDERS.length)];
+            var kind = random.nextInt(20);
+            if (kind == 0) {
+                history.append("JOIN:").append(time).append(":Server:").append(sender).append(" (127.0.0.1) joined the chat.||");
+            } else if (kind == 1) {
+                history.append("LEAVE:").append(time).append(":Server:").append(sender).append(" (127.0.0.1) left the chat.||");
+            } else {
+                history.append("CHAT:").append(time).append(':').append(sender).append(':').append(line(random, 20 + random.nextInt(80))).append("||");
+            }
+            time += random.nextInt(5000);
+        }
+        return history.substring(0, MAX_WELCOME_BYTES);
+    }
+
+    private static String line(Random random, int size) {
+        var line = new StringBuilder();
+        while (line.length() < size) line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        return line.substring(0, size);
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final int MAX_WELCOME_BYTES = 60000;
+    private static final int PAGE_ENTRIES = 100;
+    private static final int CHUNK_BYTES = 1200;
+
+    @Param({"1024", "16384"})
+    public int historySize;
+
+    private Object ring;
+    private Object welcomeType;
+    private byte[] entry;
+
+    @Setup
+    public void setup() throws Throwable {
+        ring = (Object) Chat.NEW_RING.invokeExact((Object) historySize, (Object) (historySize * 256));
+        welcomeType = Chat.type("WELCOME");
+        entry = ("CHAT:" + System.currentTimeMillis() + ":alice:a typical line of chat, about eighty bytes long on the wire")
+                .getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < historySize; i++) {
+            var seq = (Object) Chat.APPEND.invokeExact(ring, (Object) entry, (Object) entry.length);
+        }
+    }
+
+    @Benchmark
+    public Object append() throws Throwable {
+        return (Object) Chat.APPEND.invokeExact(ring, (Object) entry, (Object) entry.length);
+    }
+
+    // What handleHello() does for a client without paged history: snapshot and wrap one WELCOME.
+    @Benchmark
+    public Object welcomeSnapshot() throws Throwable {
+        var snapshot = (Object) Chat.SNAPSHOT.invokeExact(ring, (Object) MAX_WELCOME_BYTES);
+        return (Object) Chat.ENCODE_RAW.invokeExact(welcomeType, (Object) Instant.now(), (Object) "Server", snapshot, (Object) true);
+    }
+
+    @Benchmark
+    public Object pagedChunk() throws Throwable {
+        var tail = (long) (Object) Chat.TAIL.invokeExact(ring);
+        return (Object) Chat.READ.invokeExact(ring, (Object) (tail - PAGE_ENTRIES), (Object) PAGE_ENTRIES, (Object) CHUNK_BYTES);
+    }
+}
@@ -0,0 +1,45 @@
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+// Recipients of one broadcast scope, split by wire format and by whether they take reliable
+// delivery, so a message is encoded at most twice however many members there are. Immutable;
+// rebuilt whenever membership or a member's capabilities change.
+public final class Audience {
+    public static final Audience EMPTY = new Audience(Destinations.EMPTY, Destinations.EMPTY, Destinations.EMPTY, Destinations.EMPTY);
+
+    final Destinations text;
+    final Destinations binary;
+    final Destinations reliableText;
+    final Destinations reliableBinary;
+
+    private Audience(Destinations text, Destinations binary, Destinations reliableText, Destinations reliableBinary) {
+        this.text = text;
+        this.binary = binary;
+        this.reliableText = reliableText;
+        this.reliableBinary = reliableBinary;
+    }
+
+    public static Audience of(Collection<SocketAddress> members, Set<SocketAddress> binaryClients, Map<SocketAddress, ReliableEndpoint> endpoints) {
+        var text = new ArrayList<InetSocketAddress>();
+        var binary = new ArrayList<InetSocketAddress>();
+        var reliableText = new ArrayList<InetSocketAddress>();
+        var reliableBinary = new ArrayList<InetSocketAddress>();
+        for (var member : members) {
+            var reliable = endpoints.containsKey(member);
+            if (binaryClients.contains(member)) {
+                (reliable ? reliableBinary : binary).add((InetSocketAddress) member);
+            } else {
+                (reliable ? reliableText : text).add((InetSocketAddress) member);
+            }
+        }
+        return new Audience(Destinations.of(text), Destinations.of(binary), Destinations.of(reliableText, endpoints), Destinations.of(reliableBinary, endpoints));
+    }
+
+    public int size() {
+        return text.size() + binary.size() + reliableText.size() + reliableBinary.size();
+    }
+}
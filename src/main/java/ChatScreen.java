@@ -1,40 +1,126 @@
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.Style;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyleContext;
 import java.awt.*;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.SocketTimeoutException;
+import java.net.ProtocolException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class ChatScreen extends JFrame {
+    public static final String SCROLLBACK_PROPERTY = "chat.client.scrollback";
+    private static final int DEFAULT_SCROLLBACK = 10_000;
+    private static final long EXPORT_STOP_MILLIS = 2000;
     private final Client client;
     private final String nickname;
     private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("h:mm a");
+    private static final DateTimeFormatter SEARCH_TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("MMM d, h:mm a");
+    private static final DateTimeFormatter EXPORT_TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int SEARCH_PAGE_SIZE = 50;
     private volatile boolean running = true;
     private Thread receiverThread;
+    private String searchQuery;
 
     private JTextField inputField;
     private JButton sendButton;
-    private JTextPane textPane;
+    private final MessageListModel messages = new MessageListModel(Integer.getInteger(SCROLLBACK_PROPERTY, DEFAULT_SCROLLBACK));
+    private JList<MessageListModel.Line> messageList;
+    private JScrollPane scrollPane;
+    private final Transcript transcript = openTranscript();
+    // Exports in progress and the latch each counts down once it has stopped reading the
+    // transcript. Only touched on the event dispatch thread.
+    private final Map<SwingWorker<Long, Void>, CountDownLatch> exports = new HashMap<>();
+
+    // Paints one line as a timestamp followed by the text. Cells have a fixed height and width, so
+    // the list never measures rows it is not showing; long lines are cut off and shown in full in
+    // the tooltip.
+    private static final class LineRenderer extends JComponent implements ListCellRenderer<MessageListModel.Line> {
+        private static final Font DEFAULT_FONT = new Font("Arial", Font.PLAIN, 14);
+        private static final Font TIMESTAMP_FONT = new Font("Arial", Font.BOLD, 14);
+        private static final Font NOTICE_FONT = new Font("Arial", Font.BOLD, 15);
+        private static final Font PRIVATE_FONT = new Font("Arial", Font.BOLD | Font.ITALIC, 14);
+        private static final Color TIMESTAMP_COLOR = new Color(0x555555);
+        private static final Color SYSTEM_COLOR = new Color(0x0066CC);
+        private static final Color JOIN_COLOR = new Color(0x2E8B57);
+        private static final Color LEAVE_COLOR = new Color(0xCC0000);
+        private static final Color PRIVATE_COLOR = new Color(0x8A2BE2); // Purple
+
+        private MessageListModel.Line line;
+        private boolean selected;
+        private Color selectionBackground;
+
+        int cellHeight() {
+            return getFontMetrics(NOTICE_FONT).getHeight() + 2;
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends MessageListModel.Line> list, MessageListModel.Line value, int index, boolean isSelected, boolean cellHasFocus) {
+            line = value;
+            selected = isSelected;
+            selectionBackground = list.getSelectionBackground();
+            return this;
+        }
 
-    private Style defaultStyle;
-    private Style timestampStyle;
-    private Style systemStyle;
-    private Style joinStyle;
-    private Style leaveStyle;
-    private Style chatStyle;
-    private Style privateStyle;
+        @Override
+        protected void paintComponent(Graphics g) {
+            if (selected) {
+                g.setColor(selectionBackground);
+                g.fillRect(0, 0, getWidth(), getHeight());
+            }
+            if (line == null) return;
+
+            var g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            var baseline = getHeight() - g.getFontMetrics(NOTICE_FONT).getDescent() - 1;
+            g.setFont(TIMESTAMP_FONT);
+            g.setColor(TIMESTAMP_COLOR);
+            g.drawString(line.timestamp, 0, baseline);
+
+            var x = g.getFontMetrics().stringWidth(line.timestamp);
+            g.setFont(fontOf(line.kind));
+            g.setColor(colorOf(line.kind));
+            g.drawString(line.text, x, baseline);
+        }
+
+        private static Font fontOf(MessageListModel.Kind kind) {
+            switch (kind) {
+                case SYSTEM:
+                case JOIN:
+                case LEAVE:
+                    return NOTICE_FONT;
+                case PRIVATE:
+                    return PRIVATE_FONT;
+                default:
+                    return DEFAULT_FONT;
+            }
+        }
+
+        private static Color colorOf(MessageListModel.Kind kind) {
+            switch (kind) {
+                case SYSTEM:
+                    return SYSTEM_COLOR;
+                case JOIN:
+                    return JOIN_COLOR;
+                case LEAVE:
+                    return LEAVE_COLOR;
+                case PRIVATE:
+                    return PRIVATE_COLOR;
+                default:
+                    return Color.BLACK;
+            }
+        }
+    }
 
     public ChatScreen(Client client, String nickname) {
         this.client = client;
@@ -84,7 +170,7 @@ public class ChatScreen extends JFrame {
                 var message = new Message("", nickname, Message.Type.USER_LIST);
                 client.sendMessage(message);
             } catch (IOException ex) {
-                appendText("[" + LocalDateTime.now().format(TIMESTAMP_FORMATTER) + "] Error: " + ex.getMessage() + "\n", defaultStyle);
+                appendLine("Error: " + ex.getMessage(), MessageListModel.Kind.DEFAULT);
             }
         });
 
@@ -95,12 +181,9 @@ public class ChatScreen extends JFrame {
             if (msg != null && !msg.trim().isEmpty()) {
                 try {
                     client.sendPrivateMessage(msg);
-
-                    appendTimestamp();
-                    appendText("Private message sent: " + msg + "\n", privateStyle);
+                    appendMessage(new Message(msg, nickname, Message.Type.CHAT_PRIVATE));
                 } catch (IOException ex) {
-                    appendTimestamp();
-                    appendText("Error: " + ex.getMessage() + "\n", defaultStyle);
+                    appendLine("Error: " + ex.getMessage(), MessageListModel.Kind.DEFAULT);
                 }
             }
         });
@@ -109,19 +192,36 @@ public class ChatScreen extends JFrame {
         saveBtn.setFont(new Font("Arial", Font.BOLD, 12));
         saveBtn.addActionListener(e -> saveChat());
 
+        var searchBtn = new JButton("Search");
+        searchBtn.setFont(new Font("Arial", Font.BOLD, 12));
+        searchBtn.addActionListener(e -> {
+            var query = JOptionPane.showInputDialog(this, "Search chat history (from:<name> limits it to one sender):");
+            if (query != null && !query.trim().isEmpty()) search(query.trim(), Long.MAX_VALUE);
+        });
+
         btnPanel.add(connectedBtn);
         btnPanel.add(privateBtn);
+        btnPanel.add(searchBtn);
         btnPanel.add(saveBtn);
         headerPanel.add(btnPanel, BorderLayout.EAST);
 
-        textPane = new JTextPane();
-        textPane.setEditable(false);
-
-        initializeTextStyles();
-
-        textPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        JScrollPane scrollPane = new JScrollPane(textPane);
+        var renderer = new LineRenderer();
+        messageList = new JList<>(messages) {
+            @Override
+            public String getToolTipText(MouseEvent event) {
+                var index = locationToIndex(event.getPoint());
+                return index < 0 ? null : messages.getElementAt(index).toString();
+            }
+        };
+        messageList.setCellRenderer(renderer);
+        messageList.setFixedCellHeight(renderer.cellHeight());
+        messageList.setFixedCellWidth(1);
+        messageList.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        ToolTipManager.sharedInstance().registerComponent(messageList);
+
+        scrollPane = new JScrollPane(messageList);
         scrollPane.setBorder(BorderFactory.createTitledBorder("Chat"));
+        messages.addFlushListener(this::followTail);
 
         for (var sysMsg : client.getSystemMessages()) {
             appendMessage(sysMsg);
@@ -176,149 +276,262 @@ public class ChatScreen extends JFrame {
         SwingUtilities.invokeLater(() -> inputField.requestFocusInWindow());
     }
 
-    private void initializeTextStyles() {
-        StyleContext styleContext = StyleContext.getDefaultStyleContext();
-        var doc = textPane.getStyledDocument();
-
-        defaultStyle = styleContext.getStyle(StyleContext.DEFAULT_STYLE);
-        StyleConstants.setFontFamily(defaultStyle, "Arial");
-        StyleConstants.setFontSize(defaultStyle, 14);
-
-        timestampStyle = doc.addStyle("timestamp", defaultStyle);
-        StyleConstants.setForeground(timestampStyle, new Color(0x555555));
-        StyleConstants.setBold(timestampStyle, true);
-
-        systemStyle = doc.addStyle("system", defaultStyle);
-        StyleConstants.setForeground(systemStyle, new Color(0x0066CC));
-        StyleConstants.setBold(systemStyle, true);
-        StyleConstants.setFontSize(systemStyle, 15);
-
-        joinStyle = doc.addStyle("join", defaultStyle);
-        StyleConstants.setForeground(joinStyle, new Color(0x2E8B57));
-        StyleConstants.setBold(joinStyle, true);
-        StyleConstants.setFontSize(joinStyle, 15);
-
-        leaveStyle = doc.addStyle("leave", defaultStyle);
-        StyleConstants.setForeground(leaveStyle, new Color(0xCC0000));
-        StyleConstants.setBold(leaveStyle, true);
-        StyleConstants.setFontSize(leaveStyle, 15);
-
-        chatStyle = doc.addStyle("chat", defaultStyle);
-        StyleConstants.setForeground(chatStyle, Color.BLACK);
+    // Keeps the newest line in view, unless the user has scrolled up to read older ones.
+    private void followTail() {
+        var bar = scrollPane.getVerticalScrollBar();
+        var atEnd = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - messageList.getFixedCellHeight();
+        if (atEnd) SwingUtilities.invokeLater(() -> messageList.ensureIndexIsVisible(messages.getSize() - 1));
+    }
 
-        privateStyle = doc.addStyle("private", defaultStyle);
-        StyleConstants.setForeground(privateStyle, new Color(0x8A2BE2)); // Purple
-        StyleConstants.setBold(privateStyle, true);
-        StyleConstants.setItalic(privateStyle, true);
+    private void appendLine(String text, MessageListModel.Kind kind) {
+        messages.add(new MessageListModel.Line("[" + LocalDateTime.now().format(TIMESTAMP_FORMATTER) + "] ", text, kind));
     }
 
-    private void appendText(String text, Style style) {
-        var doc = textPane.getStyledDocument();
+    private static Transcript openTranscript() {
         try {
-            doc.insertString(doc.getLength(), text, style);
-        } catch (BadLocationException e) {
-            System.err.println("Error appending text: " + e.getMessage());
+            return Transcript.open();
+        } catch (IOException e) {
+            System.err.println("Failed to open chat transcript, saving will be unavailable: " + e.getMessage());
+            return null;
         }
-        textPane.setCaretPosition(doc.getLength());
-    }
-
-    private void appendTimestamp() {
-        String timestamp = "[" + LocalDateTime.now().format(TIMESTAMP_FORMATTER) + "] ";
-        appendText(timestamp, timestampStyle);
     }
 
+    // Safe to call from any thread; the line is formatted here and reaches the view with the next batch.
     private void appendMessage(Message message) {
-        var timestamp = "[" + LocalDateTime.ofInstant(message.getTimestamp(), ZoneId.systemDefault()).format(TIMESTAMP_FORMATTER) + "] ";
-        appendText(timestamp, timestampStyle);
+        if (transcript != null) transcript.append(message);
+        var line = toLine(message, TIMESTAMP_FORMATTER);
+
+        // Continuation lines of a multi-line message are rows of their own, without a timestamp
+        var rows = line.text.split("\n", -1);
+        messages.add(new MessageListModel.Line(line.timestamp, rows[0], line.kind));
+        for (int i = 1; i < rows.length; i++) messages.add(new MessageListModel.Line("", rows[i], line.kind));
 
-        Style contentStyle;
+        if (message.getType() == Message.Type.ROOM_JOIN) {
+            for (var entry : Room.textOf(message.getContent()).split("\\|\\|")) {
+                if (!entry.isEmpty()) appendMessage(Message.fromNetworkString(entry, "Server"));
+            }
+        }
+    }
+
+    private MessageListModel.Line toLine(Message message, DateTimeFormatter formatter) {
+        var timestamp = "[" + LocalDateTime.ofInstant(message.getTimestamp(), ZoneId.systemDefault()).format(formatter) + "] ";
+        MessageListModel.Kind kind;
         String content;
 
         switch (message.getType()) {
             case SYSTEM:
-                contentStyle = systemStyle;
-                content = message.getContent() + "\n";
+                kind = MessageListModel.Kind.SYSTEM;
+                content = message.getContent();
                 break;
             case JOIN:
-                contentStyle = joinStyle;
-                content = message.getContent() + "\n";
+                kind = MessageListModel.Kind.JOIN;
+                content = message.getContent();
                 break;
             case LEAVE:
-                contentStyle = leaveStyle;
-                content = message.getContent() + "\n";
+                kind = MessageListModel.Kind.LEAVE;
+                content = message.getContent();
                 break;
             case CHAT:
-                contentStyle = chatStyle;
-                content = message.getSender() + ": " + message.getContent() + "\n";
+                kind = MessageListModel.Kind.CHAT;
+                content = message.getSender() + ": " + message.getContent();
+                break;
+            case CHAT_PRIVATE:
+                kind = MessageListModel.Kind.PRIVATE;
+                content = "Private message sent: " + message.getContent();
+                break;
+            case ROOM_MESSAGE:
+                var room = "[#" + Room.roomOf(message.getContent()) + "] ";
+                var server = "Server".equals(message.getSender());
+                kind = server ? MessageListModel.Kind.SYSTEM : MessageListModel.Kind.CHAT;
+                content = room + (server ? "" : message.getSender() + ": ") + Room.textOf(message.getContent());
+                break;
+            case DIRECT_MESSAGE:
+                var outgoing = message.getSender().equals(nickname);
+                kind = MessageListModel.Kind.PRIVATE;
+                content = (outgoing ? "[to " + recipientOf(message.getContent()) + "] " : "[from " + message.getSender() + "] ")
+                        + DirectMessage.textOf(message.getContent());
+                break;
+            case ROOM_JOIN:
+                kind = MessageListModel.Kind.SYSTEM;
+                content = "You joined #" + Room.roomOf(message.getContent()) + ".";
+                break;
+            case ROOM_PART:
+                kind = MessageListModel.Kind.SYSTEM;
+                content = "You left #" + Room.roomOf(message.getContent()) + ".";
                 break;
             default:
-                contentStyle = defaultStyle;
-                content = message.getContent() + "\n";
+                kind = MessageListModel.Kind.DEFAULT;
+                content = message.getContent();
         }
 
-        appendText(content, contentStyle);
+        return new MessageListModel.Line(timestamp, content, kind);
+    }
+
+    // Shows a recipient that does not decode as it was typed rather than dropping the line.
+    private static String recipientOf(String content) {
+        try {
+            return DirectMessage.recipientOf(content);
+        } catch (ProtocolException e) {
+            var colon = content.indexOf(':');
+            return colon < 0 ? content : content.substring(0, colon);
+        }
     }
 
     private void sendMessage() {
         var msg = inputField.getText();
         if (msg.trim().isEmpty()) return;
         try {
-            client.sendMessage(msg);
-
-            var selfMessage = new Message(msg, nickname, Message.Type.CHAT);
-            appendMessage(selfMessage);
+            // "/join name" and "/part name" manage rooms, "#name text" talks in one and
+            // "/msg nickname text" sends a direct message
+            var words = msg.trim().split("\\s+", 2);
+            var direct = words[0].equals("/msg") && words.length == 2 ? words[1].split("\\s+", 2) : null;
+            if (direct != null && direct.length == 2) {
+                client.sendDirectMessage(direct[0], direct[1]);
+                appendMessage(new Message(DirectMessage.content(direct[0], direct[1]), nickname, Message.Type.DIRECT_MESSAGE));
+            } else if (words[0].equals("/join") && words.length == 2) {
+                client.joinRoom(words[1]);
+            } else if (words[0].equals("/part") && words.length == 2) {
+                client.partRoom(words[1]);
+            } else if (words[0].startsWith("#") && words.length == 2 && Room.isValidName(words[0])) {
+                var room = Room.normalize(words[0]);
+                client.sendRoomMessage(room, words[1]);
+                appendMessage(new Message(Room.content(room, words[1]), nickname, Message.Type.ROOM_MESSAGE));
+            } else {
+                client.sendMessage(msg);
+                appendMessage(new Message(msg, nickname, Message.Type.CHAT));
+            }
 
             inputField.setText("");
         } catch (IOException ex) {
-            appendTimestamp();
-            appendText("Error: " + ex.getMessage() + "\n", defaultStyle);
+            appendLine("Error: " + ex.getMessage(), MessageListModel.Kind.DEFAULT);
         }
     }
 
+    private void search(String query, long before) {
+        searchQuery = query;
+        String sender = null;
+        var terms = new StringBuilder();
+        for (var word : query.split("\\s+")) {
+            if (word.startsWith("from:") && word.length() > 5) {
+                sender = word.substring(5);
+            } else {
+                terms.append(word).append(' ');
+            }
+        }
+
+        try {
+            client.search(terms.toString(), sender, null, null, before, SEARCH_PAGE_SIZE);
+        } catch (IOException ex) {
+            appendLine("Error: " + ex.getMessage(), MessageListModel.Kind.DEFAULT);
+        }
+    }
+
+    private void showSearchResults(Message message) {
+        SearchPage page;
+        try {
+            page = SearchPage.parse(message.getContent());
+        } catch (ProtocolException ex) {
+            appendLine("Error: " + ex.getMessage(), MessageListModel.Kind.DEFAULT);
+            return;
+        }
+
+        var text = new StringBuilder();
+        for (var entry : page.entries) {
+            text.append('[').append(LocalDateTime.ofInstant(entry.getTimestamp(), ZoneId.systemDefault()).format(SEARCH_TIMESTAMP_FORMATTER))
+                    .append("] ").append(entry.getSender()).append(": ").append(entry.getContent()).append('\n');
+        }
+        if (page.entries.isEmpty()) text.append("No matches for \"").append(searchQuery).append("\".");
+
+        var resultsArea = new JTextArea(text.toString(), 15, 50);
+        resultsArea.setEditable(false);
+        resultsArea.setCaretPosition(0);
+        var scrollPane = new JScrollPane(resultsArea);
+        if (page.next < 0) {
+            JOptionPane.showMessageDialog(this, scrollPane, "Search Results", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        var options = new Object[]{"Older", "Close"};
+        var choice = JOptionPane.showOptionDialog(this, scrollPane, "Search Results", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.INFORMATION_MESSAGE, null, options, options[1]);
+        if (choice == 0) search(searchQuery, page.next);
+    }
+
     private void saveChat() {
+        if (transcript == null) {
+            JOptionPane.showMessageDialog(this, "The chat transcript could not be opened, so there is nothing to save.", "Save Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
         var fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save Chat History");
+        fileChooser.setDialogTitle("Save Chat History (.txt, .jsonl, add .gz to compress)");
 
         var timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
         fileChooser.setSelectedFile(new File("chat_history_" + timestamp + ".txt"));
 
         int userSelection = fileChooser.showSaveDialog(this);
+        if (userSelection != JFileChooser.APPROVE_OPTION) return;
 
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            var fileToSave = fileChooser.getSelectedFile();
+        var fileToSave = fileChooser.getSelectedFile();
+        if (TranscriptExport.formatOf(fileToSave.getName()) == null) {
+            fileToSave = new File(fileToSave.getAbsolutePath() + TranscriptExport.Format.TEXT.extension);
+        }
+        exportTranscript(fileToSave);
+    }
 
-            if (!fileToSave.getName().toLowerCase().endsWith(".txt")) {
-                fileToSave = new File(fileToSave.getAbsolutePath() + ".txt");
+    // Streams the transcript to the file on a worker thread. The window stays usable meanwhile and
+    // the progress dialog can cancel the export.
+    private void exportTranscript(File fileToSave) {
+        var header = "Chat History - " + LocalDateTime.now().format(EXPORT_TIMESTAMP_FORMATTER) + "\n"
+                + "User: " + nickname + "\n"
+                + "Server: " + client.getAddress().getHostAddress() + ":" + client.getPort() + "\n"
+                + "---------------------------------------------\n\n";
+        var monitor = new ProgressMonitor(this, "Saving chat history to " + fileToSave.getName(), null, 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+
+        var stopped = new CountDownLatch(1);
+        var worker = new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws IOException {
+                try {
+                    return TranscriptExport.write(transcript, fileToSave.toPath(), header,
+                            message -> toLine(message, EXPORT_TIMESTAMP_FORMATTER).toString(),
+                            (done, total) -> setProgress(total == 0 ? 100 : (int) (done * 100 / total)));
+                } finally {
+                    stopped.countDown();
+                }
             }
 
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileToSave))) {
-                writer.write("Chat History - " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-                writer.newLine();
-                writer.write("User: " + nickname);
-                writer.newLine();
-                writer.write("Server: " + client.getAddress().getHostAddress() + ":" + client.getPort());
-                writer.newLine();
-                writer.write("---------------------------------------------");
-                writer.newLine();
-                writer.newLine();
-
-                var doc = textPane.getDocument();
-                writer.write(doc.getText(0, doc.getLength()));
-
-                JOptionPane.showMessageDialog(this,
-                        "Chat history saved successfully to:\n" + fileToSave.getAbsolutePath(),
-                        "Save Successful",
-                        JOptionPane.INFORMATION_MESSAGE
-                );
-
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this,
-                        "Error saving chat history: " + ex.getMessage(),
-                        "Save Error",
-                        JOptionPane.ERROR_MESSAGE
-                );
+            @Override
+            protected void done() {
+                exports.remove(this);
+                monitor.close();
+                try {
+                    var count = get();
+                    JOptionPane.showMessageDialog(ChatScreen.this,
+                            "Saved " + count + " messages to:\n" + fileToSave.getAbsolutePath(),
+                            "Save Successful",
+                            JOptionPane.INFORMATION_MESSAGE
+                    );
+                } catch (CancellationException | InterruptedException ignored) {
+                } catch (ExecutionException ex) {
+                    JOptionPane.showMessageDialog(ChatScreen.this,
+                            "Error saving chat history: " + ex.getCause().getMessage(),
+                            "Save Error",
+                            JOptionPane.ERROR_MESSAGE
+                    );
+                }
             }
-        }
+        };
+        exports.put(worker, stopped);
+        worker.addPropertyChangeListener(e -> {
+            if (monitor.isCanceled()) {
+                worker.cancel(true);
+            } else if ("progress".equals(e.getPropertyName())) {
+                monitor.setProgress((Integer) e.getNewValue());
+            }
+        });
+        worker.execute();
     }
 
     public void startReceiver() {
@@ -328,6 +541,16 @@ public class ChatScreen extends JFrame {
                     var message = client.receive();
                     if (!running) break;
 
+                    if (message.getType() == Message.Type.HISTORY_CHUNK) {
+                        var entries = client.acceptHistoryChunk(message);
+                        entries.forEach(this::appendMessage);
+                        continue;
+                    }
+                    if (message.getType() != Message.Type.USER_LIST_RESPONSE && message.getType() != Message.Type.SEARCH_RESULT) {
+                        appendMessage(message);
+                        continue;
+                    }
+
                     SwingUtilities.invokeLater(() -> {
                         if (message.getType() == Message.Type.USER_LIST_RESPONSE) {
                             JOptionPane.showMessageDialog(
@@ -337,11 +560,9 @@ public class ChatScreen extends JFrame {
                                     JOptionPane.INFORMATION_MESSAGE
                             );
                         } else {
-                            appendMessage(message);
+                            showSearchResults(message);
                         }
                     });
-                } catch (SocketTimeoutException e) {
-                    if (!running) break;
                 } catch (IOException ignored) {
                     if (!running) break;
 
@@ -359,6 +580,9 @@ public class ChatScreen extends JFrame {
 
     public void cleanup() {
         running = false;
+        messages.stop();
+        stopExports();
+        if (transcript != null) transcript.close();
 
         if (client != null) client.close();
 
@@ -371,4 +595,23 @@ public class ChatScreen extends JFrame {
             }
         }
     }
+
+    // Cancelling only interrupts an export, so wait for it to let go of the transcript before that
+    // is closed and, for a temporary one, deleted. A worker that never started has nothing to wait for.
+    private void stopExports() {
+        for (var export : Map.copyOf(exports).entrySet()) {
+            var worker = export.getKey();
+            worker.cancel(true);
+            if (worker.getState() == SwingWorker.StateValue.PENDING) continue;
+            try {
+                if (!export.getValue().await(EXPORT_STOP_MILLIS, TimeUnit.MILLISECONDS)) {
+                    System.err.println("Chat history export did not stop, closing the transcript anyway");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        exports.clear();
+    }
 }
\ No newline at end of file
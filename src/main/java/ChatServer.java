@@ -0,0 +1,1117 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public abstract class ChatServer extends Thread implements Closeable {
+    public static final String ENGINE_PROPERTY = "chat.server.engine";
+    public static final String BIND_PROPERTY = "chat.server.bind";
+    public static final String HISTORY_PROPERTY = "chat.server.history";
+    public static final String EXECUTOR_PROPERTY = "chat.server.executor";
+    public static final String METRICS_PORT_PROPERTY = "chat.metrics.port";
+    public static final String METRICS_JMX_PROPERTY = "chat.metrics.jmx";
+    public static final String ROOM_HISTORY_PROPERTY = "chat.server.roomHistory";
+    public static final String IDLE_TIMEOUT_PROPERTY = "chat.server.idleTimeoutMillis";
+    public static final String LOG_DIR_PROPERTY = "chat.server.log.dir";
+    public static final String LOG_SEGMENT_BYTES_PROPERTY = "chat.server.log.segmentBytes";
+    public static final String LOG_SEGMENTS_PROPERTY = "chat.server.log.segments";
+    // Large enough for one full fragment plus reliability framing; bigger messages arrive fragmented.
+    protected static final int PACKET_SIZE = 2048;
+    private static final int DEFAULT_HISTORY = 1024;
+    private static final int MAX_WELCOME_BYTES = 60000;
+    private static final int MAX_PARTIALS_PER_CLIENT = 4;
+    private static final long MAX_REASSEMBLY_BYTES = 8L * 1024 * 1024;
+    private static final long REASSEMBLY_TIMEOUT_MILLIS = 5000;
+    private static final long DEFAULT_LOG_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final int DEFAULT_LOG_SEGMENTS = 16;
+    private static final int RETAIN_INTERVAL = 1024;
+    private static final int DEFAULT_ROOM_HISTORY = 256;
+    private static final int MAX_ROOMS_PER_CLIENT = 32;
+    private static final int MAX_ROOMS = 1024;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+    private static final long WHEEL_TICK_MILLIS = 250;
+    private static final long LIMITED_NOTICE_MILLIS = 1000;
+
+    // Last-seen time of a joined client. The receive path only writes lastSeen; the idle timer is
+    // pushed back lazily when it fires, so a chatty client costs no wheel operations per packet.
+    private static final class Peer {
+        final InetSocketAddress address;
+        volatile long lastSeen;
+        volatile long limitedNotice;
+        TimingWheel.Timeout<Peer> timeout;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    protected final int port;
+    private final Set<SocketAddress> clients = ConcurrentHashMap.newKeySet();
+    private final NicknameIndex nicknames = new NicknameIndex();
+    private final Set<SocketAddress> binaryClients = ConcurrentHashMap.newKeySet();
+    private final Map<SocketAddress, ReliableEndpoint> endpoints = new ConcurrentHashMap<>();
+    private final Set<InetSocketAddress> backlogged = ConcurrentHashMap.newKeySet();
+    private final Set<SocketAddress> fragmentClients = ConcurrentHashMap.newKeySet();
+    private final Set<SocketAddress> deflateClients = ConcurrentHashMap.newKeySet();
+    private final Fragments reassembly = new Fragments(MAX_PARTIALS_PER_CLIENT, MAX_REASSEMBLY_BYTES, REASSEMBLY_TIMEOUT_MILLIS);
+    private final AtomicLong fragmentIds = new AtomicLong();
+    private final Object destinationsLock = new Object();
+    private volatile Audience everyone = Audience.EMPTY;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final Map<SocketAddress, Set<String>> memberships = new ConcurrentHashMap<>();
+    private final int roomHistorySize = Integer.getInteger(ROOM_HISTORY_PROPERTY, DEFAULT_ROOM_HISTORY);
+    private ScheduledFuture<?> reliabilityTick;
+    private final Map<SocketAddress, Peer> peers = new ConcurrentHashMap<>();
+    private final TimingWheel<Peer> idleTimers = new TimingWheel<>(WHEEL_TICK_MILLIS, System.currentTimeMillis());
+    private final long idleTimeoutMillis = Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    private ScheduledFuture<?> livenessTick;
+    private final MessageRing history;
+    private MessageLog log;
+    private final SearchIndex index = new SearchIndex();
+    private volatile boolean indexing;
+    private final Object recordLock = new Object();
+    private final Sessions sessions;
+    protected volatile boolean running = true;
+
+    protected final Metrics metrics = new Metrics();
+    private final LongAdder packetsReceived = metrics.counter("chat_packets_received_total");
+    private final LongAdder bytesReceived = metrics.counter("chat_bytes_received_total");
+    private final LongAdder decodeFailures = metrics.counter("chat_decode_failures_total");
+    private final LongAdder decodeFallbacks = metrics.counter("chat_decode_fallbacks_total");
+    private final LongAdder sendErrors = metrics.counter("chat_send_errors_total");
+    private final LongAdder packetErrors = metrics.counter("chat_packet_errors_total");
+    private final LongAdder logFailures = metrics.counter("chat_log_failures_total");
+    private final LongAdder clientsExpired = metrics.counter("chat_clients_expired_total");
+    private final LongAdder slowConsumers = metrics.counter("chat_slow_consumers_disconnected_total");
+    private final LongAdder compressedRawBytes = metrics.counter("chat_compressed_raw_bytes_total");
+    private final LongAdder compressedWireBytes = metrics.counter("chat_compressed_wire_bytes_total");
+    private final OutboundQueues outbound = OutboundQueues.fromProperties(this::sendPacket, this::sendFailed, getClass().getSimpleName());
+    private final Federation federation;
+    private final RateLimiter limiter = RateLimiter.fromProperties();
+    private final LongAdder packetsLimited = metrics.counter("chat_rate_limited_total{scope=\"packet\"}");
+    private final LongAdder[] typesLimited = new LongAdder[Message.Type.values().length];
+    private final Metrics.Histogram receiveTime = metrics.histogram("chat_receive_seconds");
+    private final Metrics.Histogram decodeTime = metrics.histogram("chat_decode_seconds");
+    private final Metrics.Histogram dispatchTime = metrics.histogram("chat_dispatch_seconds");
+    private final Metrics.Histogram broadcastTime = metrics.histogram("chat_broadcast_seconds");
+    private final Metrics.Histogram searchTime = metrics.histogram("chat_search_seconds");
+
+    public enum Engine {
+        CLASSIC,
+        NIO,
+        SHARDED,
+    }
+
+    protected ChatServer(int port, String name) {
+        this.port = port;
+        this.federation = Federation.fromProperties(port, this::sendPacket, this::localUsers, this::acceptRelay);
+        var historySize = Integer.getInteger(HISTORY_PROPERTY, DEFAULT_HISTORY);
+        this.history = new MessageRing(historySize, historySize * 256);
+        this.sessions = createSessions();
+        setName(name);
+
+        metrics.gauge("chat_clients", clients::size);
+        metrics.gauge("chat_rooms", rooms::size);
+        metrics.gauge("chat_rate_limiter_addresses", limiter::size);
+        for (var type : Message.Type.values()) {
+            if (limiter.isLimited(type)) typesLimited[type.ordinal()] = metrics.counter("chat_rate_limited_total{type=\"" + type + "\"}");
+        }
+        metrics.gauge("chat_idle_timers", () -> {
+            synchronized (idleTimers) {
+                return idleTimers.size();
+            }
+        });
+        metrics.gauge("chat_history_size", history::size);
+        metrics.gauge("chat_history_tail", history::tail);
+        metrics.gauge("chat_reliable_retransmits", () -> endpoints.values().stream().mapToLong(ReliableEndpoint::getRetransmits).sum());
+        metrics.gauge("chat_reliable_lost", () -> endpoints.values().stream().mapToLong(ReliableEndpoint::getLost).sum());
+        metrics.gauge("chat_reassembly_pending", reassembly::getPending);
+        metrics.gauge("chat_reassembly_bytes", reassembly::getBytes);
+        metrics.gauge("chat_reassembly_dropped", reassembly::getDropped);
+        metrics.gauge("chat_search_documents", index::documentCount);
+        metrics.gauge("chat_search_terms", index::termCount);
+        if (outbound != null) {
+            metrics.gauge("chat_send_queue_depth", outbound::depth);
+            metrics.gauge("chat_send_queue_deepest", outbound::deepest);
+            metrics.gauge("chat_send_queue_dropped", outbound::getDropped);
+            metrics.gauge("chat_send_queue_coalesced", outbound::getCoalesced);
+        }
+        if (federation != null) {
+            metrics.gauge("chat_federation_peers", federation::livePeers);
+            metrics.gauge("chat_federation_relayed", federation::getRelayed);
+            metrics.gauge("chat_federation_received", federation::getReceived);
+            metrics.gauge("chat_federation_duplicates", federation::getDuplicates);
+            metrics.gauge("chat_federation_stale", federation::getStale);
+            metrics.gauge("chat_federation_restarts", federation::getRestarts);
+            metrics.gauge("chat_federation_lost", federation::getLost);
+        }
+    }
+
+    private static Sessions createSessions() {
+        var executor = System.getProperty(EXECUTOR_PROPERTY, "inline").trim();
+        if (!"virtual".equalsIgnoreCase(executor)) return null;
+
+        var sessions = Sessions.virtual();
+        if (sessions == null) System.err.println("Virtual threads need Java 21+, handling sessions on the receive thread");
+        return sessions;
+    }
+
+    public static ChatServer create(int port) throws IOException {
+        var engine = System.getProperty(ENGINE_PROPERTY, Engine.CLASSIC.name());
+        return create(Engine.valueOf(engine.trim().toUpperCase(Locale.ROOT)), port);
+    }
+
+    public static ChatServer create(Engine engine, int port) throws IOException {
+        ChatServer server;
+        switch (engine) {
+            case NIO:
+                server = new NioServer(port);
+                break;
+            case SHARDED:
+                server = new ShardedServer(port, Integer.getInteger(ShardedServer.WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+                break;
+            case CLASSIC:
+            default:
+                server = new Server(port);
+                break;
+        }
+        try {
+            server.openLog();
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        server.exportMetrics();
+        if (server.federation != null) server.federation.start();
+        return server;
+    }
+
+    // Opens the on-disk log when one is configured and warms the in-memory history from its tail.
+    // Only the entries the ring can hold are replayed here; the search index covers the whole log
+    // and is rebuilt in the background, so startup time does not grow with the log.
+    private void openLog() throws IOException {
+        var directory = System.getProperty(LOG_DIR_PROPERTY);
+        if (directory == null) return;
+
+        var segmentBytes = Long.getLong(LOG_SEGMENT_BYTES_PROPERTY, DEFAULT_LOG_SEGMENT_BYTES);
+        log = MessageLog.open(Path.of(directory), segmentBytes, Integer.getInteger(LOG_SEGMENTS_PROPERTY, DEFAULT_LOG_SEGMENTS));
+
+        var start = System.nanoTime();
+        log.replay(Math.max(log.oldest(), log.tail() - history.capacity()), (seq, time, data, length) -> history.append(data, length, time));
+        System.out.printf(Locale.ROOT, "Loaded %d history entries from %s in %.1f ms%n",
+                history.size(), directory, (System.nanoTime() - start) / 1e6);
+
+        indexing = true;
+        var rebuild = new Thread(this::rebuildIndex, "SearchIndex-Rebuild");
+        rebuild.setDaemon(true);
+        rebuild.start();
+
+        var messageLog = log;
+        metrics.gauge("chat_log_tail", messageLog::tail);
+        metrics.gauge("chat_log_segments", messageLog::segmentCount);
+    }
+
+    // Indexes the log from its oldest entry while the server is already running. record() leaves the
+    // index alone until this finishes, and the last stretch is replayed under recordLock, so entries
+    // appended meanwhile are indexed exactly once and in sequence order.
+    private void rebuildIndex() {
+        var start = System.nanoTime();
+        var next = new long[1];
+        MessageLog.Visitor add = (seq, time, data, length) -> {
+            index.add(seq, time, data, length);
+            next[0] = seq + 1;
+        };
+        try {
+            log.replay(log.oldest(), add);
+            synchronized (recordLock) {
+                log.replay(Math.max(next[0], log.oldest()), add);
+                indexing = false;
+            }
+            System.out.printf(Locale.ROOT, "Indexed %d messages for search in %.1f ms%n",
+                    index.documentCount(), (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            // Search what was indexed rather than answering "indexing" forever
+            System.err.println("Failed to rebuild the search index: " + e.getMessage());
+            synchronized (recordLock) {
+                indexing = false;
+            }
+        }
+    }
+
+    protected final void releaseResources() {
+        metrics.close();
+        if (federation != null) federation.close();
+        if (outbound != null) outbound.shutdown();
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close message log: " + e.getMessage());
+        }
+    }
+
+    // Starting the platform MBean server takes longer than everything else in server startup put
+    // together, so the MBean is registered in the background while the server is already receiving.
+    private void exportMetrics() {
+        if (Boolean.parseBoolean(System.getProperty(METRICS_JMX_PROPERTY, "true"))) {
+            var registration = new Thread(() -> metrics.register("chat:type=ChatServer,port=" + port), "Metrics-Register");
+            registration.setDaemon(true);
+            registration.start();
+        }
+        var metricsPort = Integer.getInteger(METRICS_PORT_PROPERTY);
+        if (metricsPort == null) return;
+        try {
+            metrics.serve(metricsPort);
+        } catch (IOException e) {
+            System.err.println("Failed to start metrics endpoint on port " + metricsPort + ": " + e.getMessage());
+        }
+    }
+
+    // Address the engines bind to, all interfaces unless chat.server.bind names one.
+    protected static InetAddress bindAddress() throws UnknownHostException {
+        return InetAddress.getByName(System.getProperty(BIND_PROPERTY, "0.0.0.0"));
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public String getServerIpAddress() {
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            return "127.0.0.1";
+        }
+    }
+
+    @Override
+    public abstract void close();
+
+    protected abstract void sendPacket(byte[] data, int length, InetSocketAddress address) throws IOException;
+
+    protected final void sendPacket(byte[] data, InetSocketAddress address) throws IOException {
+        sendPacket(data, data.length, address);
+    }
+
+    protected void onPacket(InetSocketAddress clientAddr, ByteBuffer packet, MessageView view) throws IOException {
+        var start = System.nanoTime();
+        packetsReceived.increment();
+        bytesReceived.add(packet.remaining());
+        // Peer nodes carry a whole node's traffic, so they are neither rate limited nor idle-tracked
+        if (federation != null && federation.isPeer(clientAddr)) {
+            try {
+                federation.onPacket(clientAddr, packet, view);
+            } finally {
+                receiveTime.record(System.nanoTime() - start);
+            }
+            return;
+        }
+        // ACKs are exempt: they are cheap to process, never fan out, and dropping them would only
+        // turn into retransmissions
+        var ack = packet.hasRemaining() && packet.get(packet.position()) == ReliableEndpoint.ACK;
+        if (!ack && !limiter.admitPacket(clientAddr, start)) {
+            packetsLimited.increment();
+            return;
+        }
+        var peer = peers.get(clientAddr);
+        if (peer != null) peer.lastSeen = System.currentTimeMillis();
+        try {
+            demultiplex(clientAddr, packet, view);
+        } finally {
+            receiveTime.record(System.nanoTime() - start);
+        }
+    }
+
+    private void demultiplex(InetSocketAddress clientAddr, ByteBuffer packet, MessageView view) throws IOException {
+        var marker = packet.hasRemaining() ? packet.get(packet.position()) : 0;
+        if (marker == ReliableEndpoint.ACK) {
+            var endpoint = endpoints.get(clientAddr);
+            if (endpoint != null) endpoint.onAck(packet);
+        } else if (marker == ReliableEndpoint.DATA) {
+            var endpoint = endpoints.get(clientAddr);
+            if (endpoint == null) return;
+            if (endpoint.onData(packet) == ReliableEndpoint.DELIVER) dispatch(clientAddr, packet, view);
+
+            ByteBuffer ready;
+            while ((ready = endpoint.pollReady()) != null) dispatch(clientAddr, ready, view);
+        } else {
+            dispatch(clientAddr, packet, view);
+        }
+    }
+
+    private void dispatch(InetSocketAddress clientAddr, ByteBuffer payload, MessageView view) throws IOException {
+        if (Fragments.isFragment(payload)) {
+            payload = reassembly.offer(clientAddr, payload);
+            if (payload == null) return;
+        }
+        if (Compression.isCompressed(payload)) payload = Compression.inflate(payload);
+
+        var start = System.nanoTime();
+        try {
+            view.wrap(payload);
+        } catch (ProtocolException e) {
+            decodeFailures.increment();
+            throw e;
+        }
+        if (view.isMalformed()) decodeFallbacks.increment();
+        var decoded = System.nanoTime();
+        decodeTime.record(decoded - start);
+        // The view has only scanned the header at this point, so a flood is dropped before any
+        // content is copied, recorded or rebroadcast
+        if (!limiter.admit(clientAddr, view.getType(), decoded)) {
+            typesLimited[view.getType().ordinal()].increment();
+            noticeLimited(clientAddr, view.getType());
+            return;
+        }
+
+        handlePacket(clientAddr, view);
+        dispatchTime.record(System.nanoTime() - decoded);
+    }
+
+    // A reliable frame is ACKed before its type is known, so without this a client would take a
+    // dropped message as delivered. Joined clients hear about it at most once a second.
+    private void noticeLimited(InetSocketAddress clientAddr, Message.Type type) throws IOException {
+        var peer = peers.get(clientAddr);
+        var now = System.currentTimeMillis();
+        if (peer == null || now - peer.limitedNotice < LIMITED_NOTICE_MILLIS) return;
+        peer.limitedNotice = now;
+        send(new Message("Rate limited: some of your " + type + " messages were dropped.", "Server", Message.Type.SYSTEM), clientAddr);
+    }
+
+    protected void handlePacket(InetSocketAddress clientAddr, MessageView message) throws IOException {
+        switch (message.getType()) {
+            case HELLO:
+                var capabilities = message.getSender().toString();
+                var binary = message.isBinary() || Message.hasCapability(capabilities, Message.BINARY_CAPABILITY);
+                handleHello(clientAddr, message.getContent().toString(), binary, capabilities);
+                break;
+            case HISTORY_REQUEST:
+                var query = message.getContent().toString();
+                inSession(clientAddr, () -> handleHistoryRequest(clientAddr, query));
+                break;
+            case SEARCH_REQUEST:
+                var search = message.getContent().toString();
+                inSession(clientAddr, () -> handleSearch(clientAddr, search));
+                break;
+            case PING:
+                send(new Message("", "Server", Message.Type.PONG), clientAddr);
+                break;
+            case PONG:
+                break;
+            case DIRECT_MESSAGE:
+                handleDirectMessage(clientAddr, message.getContent().toString());
+                break;
+            case ROOM_JOIN:
+            case ROOM_PART:
+            case ROOM_MESSAGE:
+                handleRoomCommand(clientAddr, message.getType(), message.getContent().toString());
+                break;
+            case LEAVE:
+                handleLeave(clientAddr);
+                break;
+            case USER_LIST:
+                inSession(clientAddr, () -> handleUserList(clientAddr));
+                break;
+            case CHAT_PRIVATE:
+                var author = nicknames.nicknameOf(clientAddr);
+                var privateMessage = message.toMessage(author != null ? author : "Unknown");
+                inSession(clientAddr, () -> handlePrivateMessage(clientAddr, privateMessage));
+                break;
+            case CHAT:
+            case SYSTEM:
+            default:
+                handleMessage(clientAddr, message);
+                break;
+        }
+    }
+
+    // Request/response work that only concerns one client. In virtual mode it is handed to that
+    // client's session so the receive loop goes straight back to the socket.
+    private void inSession(InetSocketAddress clientAddr, Sessions.Task task) throws IOException {
+        if (sessions == null) {
+            task.run();
+        } else {
+            sessions.submit(clientAddr, task);
+        }
+    }
+
+    private void handleUserList(InetSocketAddress clientAddr) throws IOException {
+        var sb = new StringBuilder("Connected users:\n\n");
+        for (var user : localUsers()) sb.append("• ").append(user).append('\n');
+        if (federation != null) {
+            for (var node : federation.remoteUsers().entrySet()) {
+                sb.append("\nOn ").append(node.getKey()).append(":\n");
+                for (var user : node.getValue()) sb.append("• ").append(user).append('\n');
+            }
+        }
+
+        var response = new Message(sb.toString(), "Server", Message.Type.USER_LIST_RESPONSE);
+        send(response, clientAddr);
+    }
+
+    // "nickname (address)" for every client joined to this node.
+    private List<String> localUsers() {
+        var users = new ArrayList<String>();
+        for (var entry : nicknames.entries().entrySet()) {
+            var addr = (InetSocketAddress) entry.getKey();
+            users.add(entry.getValue() + " (" + addr.getAddress().getHostAddress() + ")");
+        }
+        return users;
+    }
+
+    private void handleHello(InetSocketAddress clientAddr, String nickname, boolean binary, String capabilities) throws IOException {
+        if (nickname.isEmpty()) nickname = fallbackNickname(clientAddr);
+        if (!nicknames.claim(clientAddr, nickname)) {
+            rejectHello(clientAddr, "The nickname " + nickname + " is already in use.", binary);
+            return;
+        }
+
+        if (binary) {
+            binaryClients.add(clientAddr);
+        } else {
+            binaryClients.remove(clientAddr);
+        }
+        if (Message.hasCapability(capabilities, Fragments.CAPABILITY)) {
+            fragmentClients.add(clientAddr);
+        } else {
+            fragmentClients.remove(clientAddr);
+        }
+        var deflate = Compression.ENABLED && Message.hasCapability(capabilities, Compression.CAPABILITY);
+        if (deflate) {
+            deflateClients.add(clientAddr);
+        } else {
+            deflateClients.remove(clientAddr);
+        }
+        if (Message.hasCapability(capabilities, ReliableEndpoint.CAPABILITY)) {
+            endpoints.put(clientAddr, new ReliableEndpoint(clientAddr, this::transmit));
+            startReliabilityTick();
+        } else {
+            endpoints.remove(clientAddr);
+        }
+        if (outbound != null) {
+            outbound.open(clientAddr);
+            metrics.gauge(sendQueueName(clientAddr), () -> outbound.depth(clientAddr));
+        }
+        clients.add(clientAddr);
+        rebuildDestinations();
+        rebuildRooms(clientAddr);
+        track(clientAddr);
+
+        var personalWelcomeMsg = new Message("Welcome to the chat, " + nickname + "!", "Server", Message.Type.SYSTEM);
+        if (deflate) {
+            // Compressed whatever its size: like the binary format, the client learns that the
+            // server accepts compressed packets from the form of its first reply
+            var data = personalWelcomeMsg.encode(binary);
+            sendUnfragmented(Compression.deflate(data, data.length, true, data.length + 64), null, clientAddr);
+        } else {
+            send(personalWelcomeMsg, clientAddr);
+        }
+
+        if (Message.hasCapability(capabilities, HistoryPage.CAPABILITY)) {
+            send(new Message(HistoryPage.welcome(history.oldest(), history.tail()), "Server", Message.Type.WELCOME), clientAddr);
+        } else {
+            var welcome = Message.encode(Message.Type.WELCOME, Instant.now(), "Server", history.snapshot(MAX_WELCOME_BYTES), binary);
+            sendTo(welcome, Message.Type.WELCOME, clientAddr);
+        }
+
+        var joinMsg = new Message(nickname + " (" + clientAddr.getAddress().getHostAddress() + ") joined the chat.", "Server", Message.Type.JOIN);
+        announce(joinMsg, null);
+    }
+
+    // Answers a HELLO that cannot be accepted with SYSTEM followed by LEAVE where the client expects
+    // SYSTEM followed by WELCOME. Nothing is set up for the address, so both go out raw.
+    private void rejectHello(InetSocketAddress clientAddr, String reason, boolean binary) throws IOException {
+        for (var type : new Message.Type[]{Message.Type.SYSTEM, Message.Type.LEAVE}) {
+            var data = new Message(reason, "Server", type).encode(binary);
+            transmit(data, data.length, clientAddr);
+        }
+    }
+
+    private void handleHistoryRequest(InetSocketAddress clientAddr, String query) throws IOException {
+        var parts = query.split(":");
+        long from;
+        int remaining;
+        try {
+            var value = Long.parseLong(parts[1]);
+            from = "time".equals(parts[0]) ? history.sequenceAt(value) : value;
+            remaining = Math.min(Integer.parseInt(parts[2]), HistoryPage.MAX_LIMIT);
+        } catch (RuntimeException e) {
+            throw new ProtocolException("Malformed history request: " + query);
+        }
+
+        var binary = binaryClients.contains(clientAddr);
+        // A chunk goes out fragmented when the client can reassemble it and as one datagram when
+        // not, so an entry is only cut short once it outgrows what that client can take
+        var entryLimit = fragmentClients.contains(clientAddr) ? MAX_WELCOME_BYTES : HistoryPage.CHUNK_BYTES;
+        var seq = from;
+        long pageStart = -1;
+        while (true) {
+            var range = HistoryPage.capEntry(history.read(seq, remaining, HistoryPage.CHUNK_BYTES), entryLimit);
+            if (pageStart < 0) pageStart = range.firstSeq;
+            remaining -= range.count;
+            seq = range.firstSeq + range.count;
+
+            var last = range.count == 0 || remaining <= 0 || seq >= history.tail();
+            var chunk = HistoryPage.chunk(pageStart, range, last);
+            sendTo(Message.encode(Message.Type.HISTORY_CHUNK, Instant.now(), "Server", chunk, binary), Message.Type.HISTORY_CHUNK, clientAddr);
+            if (last) break;
+        }
+    }
+
+    private void handleSearch(InetSocketAddress clientAddr, String request) throws IOException {
+        if (indexing) {
+            send(new Message("Search is still indexing the message history, try again shortly.", "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+        var query = SearchPage.parseRequest(request);
+        var start = System.nanoTime();
+        var hits = index.search(query.terms, query.sender, query.fromMillis, query.toMillis, query.before, query.limit);
+
+        var page = new SearchPage.Builder(hits.next, fragmentClients.contains(clientAddr) ? SearchPage.MAX_RESULT_BYTES : HistoryPage.CHUNK_BYTES);
+        if (log != null) {
+            log.read(hits.seqs, hits.count, (seq, time, data, length) -> page.add(seq, data, length));
+        } else {
+            for (int i = 0; i < hits.count; i++) {
+                var range = history.read(hits.seqs[i], 1, Integer.MAX_VALUE);
+                if (range.count == 1 && range.firstSeq == hits.seqs[i]) page.add(range.firstSeq, range.data, range.data.length - 2);
+            }
+        }
+        searchTime.record(System.nanoTime() - start);
+
+        var data = Message.encode(Message.Type.SEARCH_RESULT, Instant.now(), "Server", page.build(), binaryClients.contains(clientAddr));
+        sendTo(data, Message.Type.SEARCH_RESULT, clientAddr);
+    }
+
+    private void handleLeave(InetSocketAddress clientAddr) throws IOException {
+        disconnect(clientAddr, "left the chat.");
+    }
+
+    private void disconnect(InetSocketAddress clientAddr, String reason) throws IOException {
+        var peer = peers.remove(clientAddr);
+        if (peer != null) {
+            synchronized (idleTimers) {
+                if (peer.timeout != null) idleTimers.cancel(peer.timeout);
+            }
+        }
+        clients.remove(clientAddr);
+        binaryClients.remove(clientAddr);
+        endpoints.remove(clientAddr);
+        fragmentClients.remove(clientAddr);
+        deflateClients.remove(clientAddr);
+        reassembly.forget(clientAddr);
+        if (sessions != null) sessions.remove(clientAddr);
+        metrics.remove(sendErrorsName(clientAddr));
+        rebuildDestinations();
+        if (outbound != null) {
+            outbound.close(clientAddr);
+            metrics.remove(sendQueueName(clientAddr));
+        }
+        var released = nicknames.release(clientAddr);
+        var resolvedNickname = released != null ? released : fallbackNickname(clientAddr);
+
+        var joined = memberships.remove(clientAddr);
+        if (joined != null) {
+            for (var name : joined) {
+                var room = leaveRoom(clientAddr, name);
+                if (room != null) sayInRoom(room, "Server", resolvedNickname + " left #" + name + ".", null);
+            }
+        }
+
+        var leaveMsg = new Message(resolvedNickname + " (" + clientAddr.getAddress().getHostAddress() + ") " + reason, "Server", Message.Type.LEAVE);
+        announce(leaveMsg, clientAddr);
+    }
+
+    // Memberships are only cleaned up when a joined client leaves or times out, so an address that
+    // never sent HELLO cannot be allowed any.
+    private void handleRoomCommand(InetSocketAddress clientAddr, Message.Type type, String content) throws IOException {
+        if (!clients.contains(clientAddr)) {
+            send(new Message("Join the chat before using rooms.", "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+        if (type == Message.Type.ROOM_JOIN) {
+            handleRoomJoin(clientAddr, content);
+        } else if (type == Message.Type.ROOM_PART) {
+            handleRoomPart(clientAddr, content);
+        } else {
+            handleRoomMessage(clientAddr, content);
+        }
+    }
+
+    private void handleRoomJoin(InetSocketAddress clientAddr, String content) throws IOException {
+        var requested = Room.roomOf(content);
+        if (!Room.isValidName(requested)) {
+            send(new Message("Invalid room name: " + requested, "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+
+        var name = Room.normalize(requested);
+        var joined = memberships.computeIfAbsent(clientAddr, c -> ConcurrentHashMap.newKeySet());
+        if (!joined.contains(name) && joined.size() >= MAX_ROOMS_PER_CLIENT) {
+            send(new Message("You can be in at most " + MAX_ROOMS_PER_CLIENT + " rooms.", "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+        // Checked outside compute(), so concurrent joins can overshoot the cap by a few rooms
+        if (!rooms.containsKey(name) && rooms.size() >= MAX_ROOMS) {
+            send(new Message("The server already has " + MAX_ROOMS + " rooms; join an existing one.", "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+
+        // compute() keeps a join from racing the removal of the room by its last member parting
+        var added = new boolean[1];
+        var room = rooms.compute(name, (n, existing) -> {
+            var target = existing != null ? existing : new Room(n, roomHistorySize);
+            added[0] = target.add(clientAddr);
+            return target;
+        });
+        joined.add(name);
+        room.rebuild(binaryClients, endpoints);
+
+        var header = Room.content(name, "").getBytes(StandardCharsets.UTF_8);
+        var backlog = room.getHistory().snapshot(fragmentClients.contains(clientAddr) ? MAX_WELCOME_BYTES : HistoryPage.CHUNK_BYTES);
+        var reply = Arrays.copyOf(header, header.length + backlog.length);
+        System.arraycopy(backlog, 0, reply, header.length, backlog.length);
+        sendTo(Message.encode(Message.Type.ROOM_JOIN, Instant.now(), "Server", reply, binaryClients.contains(clientAddr)), Message.Type.ROOM_JOIN, clientAddr);
+
+        if (added[0]) sayInRoom(room, "Server", nickname(clientAddr) + " joined #" + name + ".", clientAddr);
+    }
+
+    private void handleRoomPart(InetSocketAddress clientAddr, String content) throws IOException {
+        var name = Room.normalize(Room.roomOf(content));
+        var joined = memberships.get(clientAddr);
+        if (joined != null) joined.remove(name);
+
+        var room = leaveRoom(clientAddr, name);
+        send(new Message(Room.content(name, ""), "Server", Message.Type.ROOM_PART), clientAddr);
+        if (room != null) sayInRoom(room, "Server", nickname(clientAddr) + " left #" + name + ".", null);
+    }
+
+    private void handleRoomMessage(InetSocketAddress clientAddr, String content) throws IOException {
+        var name = Room.normalize(Room.roomOf(content));
+        var room = rooms.get(name);
+        if (room == null || !room.contains(clientAddr)) {
+            send(new Message("You are not in #" + name + ".", "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+        sayInRoom(room, nickname(clientAddr), Room.textOf(content), clientAddr);
+    }
+
+    // Removes the client from the room, dropping the room once it is empty. Returns the room if the
+    // client was a member and others remain.
+    private Room leaveRoom(SocketAddress clientAddr, String name) {
+        var removed = new boolean[1];
+        var room = rooms.computeIfPresent(name, (n, existing) -> {
+            removed[0] = existing.remove(clientAddr);
+            return existing.isEmpty() ? null : existing;
+        });
+        if (room == null || !removed[0]) return null;
+        room.rebuild(binaryClients, endpoints);
+        return room;
+    }
+
+    private void sayInRoom(Room room, String sender, String text, SocketAddress exclude) throws IOException {
+        var message = new Message(Room.content(room.getName(), text), sender, Message.Type.ROOM_MESSAGE);
+        room.remember(message);
+        broadcast(message, room.getAudience(), exclude);
+    }
+
+    private void rebuildRooms(SocketAddress clientAddr) {
+        for (var name : memberships.getOrDefault(clientAddr, Set.of())) {
+            var room = rooms.get(name);
+            if (room != null) room.rebuild(binaryClients, endpoints);
+        }
+    }
+
+    private String nickname(InetSocketAddress clientAddr) {
+        var nickname = nicknames.nicknameOf(clientAddr);
+        return nickname != null ? nickname : fallbackNickname(clientAddr);
+    }
+
+    private static String fallbackNickname(InetSocketAddress clientAddr) {
+        return clientAddr.getAddress().getHostAddress() + ":" + clientAddr.getPort();
+    }
+
+    // Addressed DMs resolve the recipient through the nickname index and go to that one address;
+    // they never touch the broadcast path.
+    private void handleDirectMessage(InetSocketAddress clientAddr, String content) throws IOException {
+        String recipient;
+        try {
+            recipient = DirectMessage.recipientOf(content);
+        } catch (ProtocolException e) {
+            send(new Message(e.getMessage(), "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+        var target = (InetSocketAddress) nicknames.addressOf(recipient);
+        if (target == null) {
+            send(new Message("No user named " + recipient + " is online.", "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+        send(new Message(content, nickname(clientAddr), Message.Type.DIRECT_MESSAGE), target);
+    }
+
+    private void handleMessage(InetSocketAddress clientAddr, MessageView message) throws IOException {
+        var nickname = nicknames.nicknameOf(clientAddr);
+        if (nickname == null) {
+            nickname = fallbackNickname(clientAddr);
+            nicknames.claim(clientAddr, nickname);
+        }
+        if (!message.fits(nickname)) {
+            send(new Message("Message too large.", "Server", Message.Type.SYSTEM), clientAddr);
+            return;
+        }
+
+        var text = message.encode(false, nickname);
+        record(text.array(), text.limit());
+        if (federation != null && message.getType() == Message.Type.CHAT) federation.relay(text.array(), text.limit());
+        broadcast(message, text, nickname, clientAddr);
+    }
+
+    // Records a join or leave, tells peer nodes and broadcasts it to local clients.
+    private void announce(Message message, SocketAddress exclude) throws IOException {
+        var data = message.toNetworkString().getBytes(StandardCharsets.UTF_8);
+        record(data, data.length);
+        if (federation != null) {
+            federation.rosterChanged();
+            federation.relay(data, data.length);
+        }
+        broadcast(message, exclude);
+    }
+
+    // A message relayed from a peer node is recorded and broadcast as if one of our own clients sent
+    // it, but never relayed onwards.
+    private void acceptRelay(byte[] text, int length, MessageView view) throws IOException {
+        var buffer = ByteBuffer.wrap(text, 0, length);
+        view.wrap(buffer);
+        if (view.isMalformed()) throw new ProtocolException("Malformed relay");
+        if (!view.fits(view.getSender())) throw new ProtocolException("Oversized relay");
+        record(text, length);
+        broadcast(view, buffer, view.getSender().toString(), null);
+    }
+
+    // Ring, log and search index must agree on entry order, so appends to all three are serialized.
+    // The index is keyed by log sequence when there is a log and by ring sequence otherwise.
+    private void record(byte[] data, int length) {
+        synchronized (recordLock) {
+            var time = System.currentTimeMillis();
+            var seq = history.append(data, length, time);
+            if (log != null) {
+                try {
+                    seq = log.append(data, length, time);
+                } catch (IOException e) {
+                    logFailures.increment();
+                    System.err.println("Failed to append to message log: " + e.getMessage());
+                    return;
+                }
+            }
+            if (indexing) return;
+            index.add(seq, time, data, length);
+            if (seq % RETAIN_INTERVAL == 0) index.retainFrom(log != null ? log.oldest() : history.oldest());
+        }
+    }
+
+    private void handlePrivateMessage(InetSocketAddress clientAddr, Message message) {
+        var nickname = nickname(clientAddr);
+
+        var clientIP = clientAddr.getAddress().getHostAddress();
+
+        try {
+            var privateContent = "Private message from " + nickname + " (" + clientIP + "): " + message.getContent();
+
+            for (SocketAddress client : clients) {
+                var inetClient = (InetSocketAddress) client;
+                if (inetClient.getAddress().isLoopbackAddress()) {
+                    var privateMsg = new Message(privateContent, "Server", Message.Type.SYSTEM);
+                    send(privateMsg, inetClient);
+                    break;
+                }
+            }
+
+            var confirmMsg = new Message("Private message received", "Server", Message.Type.SYSTEM);
+            send(confirmMsg, clientAddr);
+        } catch (IOException e) {
+            System.err.println("Failed to process private message: " + e.getMessage());
+        }
+    }
+
+    private void rebuildDestinations() {
+        synchronized (destinationsLock) {
+            everyone = Audience.of(clients, binaryClients, endpoints);
+        }
+    }
+
+    private void broadcast(Message message, SocketAddress sender) throws IOException {
+        broadcast(message, everyone, sender);
+    }
+
+    private void broadcast(Message message, Audience audience, SocketAddress sender) throws IOException {
+        var start = System.nanoTime();
+        var reliable = ReliableEndpoint.isReliable(message.getType());
+        if (audience.text.size() + audience.reliableText.size() > 0) {
+            var data = message.encode(false);
+            deliver(data, data.length, audience.text, audience.reliableText, sender, reliable);
+        }
+        if (audience.binary.size() + audience.reliableBinary.size() > 0) {
+            var data = message.encode(true);
+            deliver(data, data.length, audience.binary, audience.reliableBinary, sender, reliable);
+        }
+        broadcastTime.record(System.nanoTime() - start);
+    }
+
+    private void broadcast(MessageView message, ByteBuffer encodedText, String nickname, SocketAddress sender) throws IOException {
+        var start = System.nanoTime();
+        var reliable = ReliableEndpoint.isReliable(message.getType());
+        var audience = everyone;
+        deliver(encodedText.array(), encodedText.limit(), audience.text, audience.reliableText, sender, reliable);
+        if (audience.binary.size() + audience.reliableBinary.size() > 0) {
+            var data = message.encode(true, nickname);
+            deliver(data.array(), data.limit(), audience.binary, audience.reliableBinary, sender, reliable);
+        }
+        broadcastTime.record(System.nanoTime() - start);
+    }
+
+    private void deliver(byte[] data, int length, Destinations plain, Destinations framed, SocketAddress exclude, boolean reliable) throws IOException {
+        var compressed = length >= Compression.THRESHOLD && !deflateClients.isEmpty() ? compress(data, length) : null;
+        if (length > Fragments.FRAGMENT_BYTES || compressed != null) {
+            deliverIndividually(data, length, compressed, plain, exclude, reliable);
+            deliverIndividually(data, length, compressed, framed, exclude, reliable);
+            return;
+        }
+        if (plain.size() > 0) queueFanOut(data, length, plain, exclude);
+        if (framed.size() == 0) return;
+        if (!reliable) {
+            queueFanOut(data, length, framed, exclude);
+            return;
+        }
+
+        var payload = length == data.length ? data : Arrays.copyOf(data, length);
+        for (int i = 0; i < framed.size(); i++) {
+            if (framed.addresses[i].equals(exclude)) continue;
+            if (!framed.endpoints[i].send(payload, length)) backlogFull(framed.addresses[i]);
+        }
+    }
+
+    // Oversized and compressible broadcasts are rare, so they skip the batched fan-out. Each form is
+    // compressed and split at most once, then sent per recipient: compressed to clients that
+    // negotiated it, as fragments to clients that can reassemble them, and whole to the rest.
+    private void deliverIndividually(byte[] data, int length, byte[] compressed, Destinations targets, SocketAddress exclude, boolean reliable) throws IOException {
+        if (targets.size() == 0) return;
+        var payload = length == data.length ? data : Arrays.copyOf(data, length);
+        List<byte[]> fragments = null;
+        List<byte[]> compressedFragments = null;
+        for (int i = 0; i < targets.size(); i++) {
+            var address = targets.addresses[i];
+            if (address.equals(exclude)) continue;
+            var endpoint = reliable ? targets.endpoints[i] : null;
+            var packet = compressed != null && deflateClients.contains(address) ? compressed : payload;
+            if (packet.length <= Fragments.FRAGMENT_BYTES || !fragmentClients.contains(address)) {
+                sendUnfragmented(packet, endpoint, address);
+                continue;
+            }
+
+            var split = packet == compressed ? compressedFragments : fragments;
+            if (split == null) {
+                split = Fragments.split(fragmentIds.getAndIncrement(), packet, packet.length);
+                if (packet == compressed) {
+                    compressedFragments = split;
+                } else {
+                    fragments = split;
+                }
+            }
+            for (var fragment : split) sendUnfragmented(fragment, endpoint, address);
+        }
+    }
+
+    private void send(Message message, InetSocketAddress address) throws IOException {
+        sendTo(message.encode(binaryClients.contains(address)), message.getType(), address);
+    }
+
+    private void sendTo(byte[] data, Message.Type type, InetSocketAddress address) throws IOException {
+        data = compressFor(address, data);
+        var endpoint = ReliableEndpoint.isReliable(type) ? endpoints.get(address) : null;
+        if (data.length <= Fragments.FRAGMENT_BYTES || !fragmentClients.contains(address)) {
+            sendUnfragmented(data, endpoint, address);
+            return;
+        }
+        for (var fragment : Fragments.split(fragmentIds.getAndIncrement(), data, data.length)) {
+            sendUnfragmented(fragment, endpoint, address);
+        }
+    }
+
+    // The packet compressed when the client negotiated it and compressing pays off, else as it was.
+    private byte[] compressFor(InetSocketAddress address, byte[] data) {
+        if (data.length < Compression.THRESHOLD || !deflateClients.contains(address)) return data;
+        var compressed = compress(data, data.length);
+        return compressed != null ? compressed : data;
+    }
+
+    private byte[] compress(byte[] data, int length) {
+        var compressed = Compression.compress(data, length);
+        if (compressed != null) {
+            compressedRawBytes.add(length);
+            compressedWireBytes.add(compressed.length);
+        }
+        return compressed;
+    }
+
+    private void sendUnfragmented(byte[] data, ReliableEndpoint endpoint, InetSocketAddress address) throws IOException {
+        if (endpoint != null) {
+            if (!endpoint.send(data, data.length)) backlogFull(address);
+        } else {
+            transmit(data, data.length, address);
+        }
+    }
+
+    // With queues off, every recipient is sent to in turn on the calling thread.
+    private void queueFanOut(byte[] data, int length, Destinations targets, SocketAddress exclude) {
+        if (outbound != null) {
+            outbound.fanOut(data, length, targets, exclude);
+            return;
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            if (targets.addresses[i].equals(exclude)) continue;
+            try {
+                sendPacket(data, length, targets.addresses[i]);
+            } catch (IOException e) {
+                sendFailed(targets.addresses[i], e);
+            }
+        }
+    }
+
+    // Joined clients are sent to through their queue, whose sender thread reports failures; anything
+    // else, such as a rejected HELLO, goes straight out on the calling thread.
+    private void transmit(byte[] data, int length, InetSocketAddress address) throws IOException {
+        if (outbound != null && outbound.send(data, length, address)) return;
+        try {
+            sendPacket(data, length, address);
+        } catch (IOException e) {
+            sendFailed(address, e);
+            throw e;
+        }
+    }
+
+    // A client that leaves a whole reliable backlog unacknowledged has stopped keeping up. It is
+    // disconnected from the liveness tick like a client whose send queue overflowed, not from
+    // whichever thread happened to be sending.
+    private void backlogFull(InetSocketAddress address) {
+        if (backlogged.add(address)) System.err.println("Reliable backlog full for " + address);
+    }
+
+    // Whatever one packet throws is logged and the engine moves on to the next, so a bug reachable
+    // from the wire cannot take a receive thread down with it.
+    protected final void packetFailed(SocketAddress source, RuntimeException e) {
+        packetErrors.increment();
+        System.err.println("Error processing packet from " + source + ": " + e);
+    }
+
+    // Engines report failed sends here, including individual recipients of a fan-out, so errors are
+    // counted per client without aborting delivery to everyone else. Only joined clients get a
+    // counter of their own, since nothing would ever remove one for any other address.
+    protected void sendFailed(SocketAddress address, IOException e) {
+        if (!running) return;
+        sendErrors.increment();
+        if (clients.contains(address)) {
+            metrics.counter(sendErrorsName(address)).increment();
+            // The client may have left after the check and taken its counter with it
+            if (!clients.contains(address)) metrics.remove(sendErrorsName(address));
+        }
+        System.err.println("Failed to send packet to " + address + ": " + e.getMessage());
+    }
+
+    private static String sendErrorsName(SocketAddress address) {
+        return "chat_client_send_errors_total{client=\"" + address + "\"}";
+    }
+
+    private static String sendQueueName(SocketAddress address) {
+        return "chat_client_send_queue_depth{client=\"" + address + "\"}";
+    }
+
+    private void track(InetSocketAddress clientAddr) {
+        var now = System.currentTimeMillis();
+        var peer = peers.computeIfAbsent(clientAddr, a -> new Peer(clientAddr));
+        peer.lastSeen = now;
+        synchronized (idleTimers) {
+            if (peer.timeout == null) peer.timeout = idleTimers.schedule(peer, now + idleTimeoutMillis);
+        }
+        startLivenessTick();
+    }
+
+    // Runs every wheel tick. A timer that fires for a client heard from since it was set is pushed
+    // back to lastSeen + timeout; otherwise the client is dropped as if it had sent LEAVE. Clients
+    // whose send queue overflowed under the DISCONNECT policy are dropped here too, off the send path.
+    private void expireIdle() {
+        var now = System.currentTimeMillis();
+        var idle = new ArrayList<Peer>();
+        synchronized (idleTimers) {
+            for (var peer : idleTimers.advance(now)) {
+                var deadline = peer.lastSeen + idleTimeoutMillis;
+                if (deadline > now) {
+                    idleTimers.reschedule(peer.timeout, deadline);
+                } else {
+                    idle.add(peer);
+                }
+            }
+        }
+
+        for (var peer : idle) {
+            if (peers.get(peer.address) != peer) continue;
+            clientsExpired.increment();
+            try {
+                disconnect(peer.address, "timed out.");
+            } catch (IOException e) {
+                System.err.println("Failed to disconnect idle client " + peer.address + ": " + e.getMessage());
+            }
+        }
+
+        InetSocketAddress slow;
+        while (outbound != null && (slow = outbound.pollOverflowed()) != null) disconnectSlow(slow);
+        for (var address : backlogged) {
+            backlogged.remove(address);
+            disconnectSlow(address);
+        }
+    }
+
+    private void disconnectSlow(InetSocketAddress slow) {
+        if (!peers.containsKey(slow)) return;
+        slowConsumers.increment();
+        try {
+            var notice = new Message("Disconnected: too far behind on messages.", "Server", Message.Type.SYSTEM).encode(binaryClients.contains(slow));
+            disconnect(slow, "fell too far behind.");
+            transmit(notice, notice.length, slow);
+        } catch (IOException e) {
+            System.err.println("Failed to disconnect slow client " + slow + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void startLivenessTick() {
+        if (livenessTick != null) return;
+        livenessTick = ReliableEndpoint.schedule(() -> {
+            if (!running) {
+                livenessTick.cancel(false);
+                return;
+            }
+            expireIdle();
+        }, WHEEL_TICK_MILLIS);
+    }
+
+    private synchronized void startReliabilityTick() {
+        if (reliabilityTick != null) return;
+        reliabilityTick = ReliableEndpoint.schedule(() -> {
+            if (!running) {
+                reliabilityTick.cancel(false);
+                return;
+            }
+            for (var endpoint : endpoints.values()) endpoint.tick();
+        });
+    }
+}
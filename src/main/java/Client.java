@@ -3,58 +3,177 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 public class Client implements Closeable {
+    public static final String BINARY_PROPERTY = "chat.wire.binary";
     private final DatagramSocket socket;
     private final InetAddress address;
     private final int port;
+    private final InetSocketAddress serverAddress;
     private final String nickname;
     private static final int MAX_HISTORY = 100;
+    private static final long HISTORY_RETRY_MILLIS = 1000;
+    private static final long HEARTBEAT_MILLIS = 10_000;
     private final List<String> messageHistory = new ArrayList<>(MAX_HISTORY);
     private final List<Message> systemMessages = new ArrayList<>();
+    private volatile boolean binary;
+    private volatile boolean deflate;
+    private final byte[] receiveBuffer = new byte[MessageView.MAX_PACKET_SIZE];
+    private final TreeMap<Long, HistoryPage> pendingHistory = new TreeMap<>();
+    private String historyQuery;
+    private long nextHistorySeq = -1;
+    private int historyRemaining;
+    private long lastHistoryActivity;
+    private volatile ReliableEndpoint endpoint;
+    private final Fragments reassembly = new Fragments(8, 4L * 1024 * 1024, 10000);
+    private long nextFragmentId;
+    private final ScheduledExecutorService timer;
+    private ScheduledFuture<?> reliabilityTick;
+    private final ScheduledFuture<?> historyRetry;
+    private final ScheduledFuture<?> heartbeat;
 
     public Client(String host, int port, String nickname) throws IOException {
+        this(host, port, nickname, ReliableEndpoint.timer());
+    }
+
+    // Heartbeats, history retries and reliability ticks run on timer.
+    public Client(String host, int port, String nickname, ScheduledExecutorService timer) throws IOException {
+        this.timer = timer;
         socket = new DatagramSocket();
         address = InetAddress.getByName(host);
         this.port = port;
+        this.serverAddress = new InetSocketAddress(address, port);
         this.nickname = nickname;
 
         socket.setSoTimeout(5000);
         performHandshake();
-        socket.setSoTimeout(1000);
+        socket.setSoTimeout(0);
+        historyRetry = ReliableEndpoint.schedule(timer, this::retryStalledHistory, HISTORY_RETRY_MILLIS / 4);
+        heartbeat = ReliableEndpoint.schedule(timer, this::sendHeartbeat, HEARTBEAT_MILLIS);
     }
 
     private void performHandshake() throws IOException {
-        sendMessage(new Message(nickname, "", Message.Type.HELLO));
+        var capabilities = Boolean.parseBoolean(System.getProperty(BINARY_PROPERTY, "true"))
+                ? Message.BINARY_CAPABILITY + "," + HistoryPage.CAPABILITY
+                : HistoryPage.CAPABILITY;
+        capabilities += "," + ReliableEndpoint.CAPABILITY + "," + Fragments.CAPABILITY;
+        if (Compression.ENABLED) capabilities += "," + Compression.CAPABILITY;
+        sendMessage(new Message(nickname, capabilities, Message.Type.HELLO));
 
-        var buf = new byte[2048];
-        var responsePacket = new DatagramPacket(buf, buf.length);
+        var responsePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        processServerMessage(receiveHandshake(responsePacket));
+        processWelcomeMessage(receiveHandshake(responsePacket));
+    }
 
-        socket.receive(responsePacket);
-        processServerMessage(responsePacket);
+    private ByteBuffer receiveHandshake(DatagramPacket packet) throws IOException {
+        while (true) {
+            var payload = pollReady();
+            if (payload != null) return payload;
 
-        socket.receive(responsePacket);
-        processWelcomeMessage(responsePacket);
+            packet.setLength(receiveBuffer.length);
+            socket.receive(packet);
+            payload = unwrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+            if (payload != null) return payload;
+        }
     }
 
-    private void processServerMessage(DatagramPacket packet) {
-        var response = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-        var welcomeMsg = Message.fromNetworkString(response, "Server");
+    // The server answers a HELLO offering compression with a compressed first reply if it accepts it.
+    private void processServerMessage(ByteBuffer response) throws IOException {
+        deflate = Compression.isCompressed(response);
+        if (deflate) response = Compression.inflate(response);
+        binary = Message.isBinary(response);
+        var welcomeMsg = Message.decode(response, "Server");
         if (welcomeMsg.getType() == Message.Type.SYSTEM) {
             systemMessages.add(welcomeMsg);
         }
     }
 
-    private void processWelcomeMessage(DatagramPacket packet) throws IOException {
-        var response = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-        var welcomeMsg = Message.fromNetworkString(response, "Server");
+    private void processWelcomeMessage(ByteBuffer response) throws IOException {
+        var welcomeMsg = decode(response);
+        if (welcomeMsg.getType() == Message.Type.LEAVE) {
+            throw new IOException(welcomeMsg.getContent());
+        }
         if (welcomeMsg.getType() != Message.Type.WELCOME) {
             throw new IOException("Server did not respond with expected handshake.");
         }
-        loadMessageHistory(welcomeMsg.getContent());
+
+        var content = welcomeMsg.getContent();
+        if (content.startsWith(HistoryPage.WELCOME_PREFIX)) {
+            var range = HistoryPage.parseWelcome(content);
+            requestHistory(Math.max(range[0], range[1] - MAX_HISTORY), MAX_HISTORY);
+        } else {
+            loadMessageHistory(content);
+        }
+    }
+
+    public synchronized void requestHistory(long fromSeq, int limit) throws IOException {
+        startHistoryRequest(HistoryPage.bySequence(fromSeq, limit), limit);
+    }
+
+    public synchronized void requestHistorySince(Instant since, int limit) throws IOException {
+        startHistoryRequest(HistoryPage.sinceTime(since.toEpochMilli(), limit), limit);
+    }
+
+    // Asks for the newest matches below before, which is Long.MAX_VALUE for the first page. The
+    // results arrive through receive() as a SEARCH_RESULT; see SearchPage.parse.
+    public void search(String terms, String sender, Instant from, Instant to, long before, int limit) throws IOException {
+        var fromMillis = from == null ? 0 : from.toEpochMilli();
+        var toMillis = to == null ? Long.MAX_VALUE : to.toEpochMilli();
+        sendMessage(new Message(SearchPage.request(terms, sender, fromMillis, toMillis, before, limit), nickname, Message.Type.SEARCH_REQUEST));
+    }
+
+    private void startHistoryRequest(String query, int limit) throws IOException {
+        pendingHistory.clear();
+        historyQuery = query;
+        nextHistorySeq = -1;
+        historyRemaining = limit;
+        lastHistoryActivity = System.currentTimeMillis();
+        sendMessage(new Message(query, nickname, Message.Type.HISTORY_REQUEST));
+    }
+
+    public synchronized List<Message> acceptHistoryChunk(Message chunk) throws ProtocolException {
+        var page = HistoryPage.parse(chunk.getContent());
+        if (historyQuery == null) return List.of();
+
+        lastHistoryActivity = System.currentTimeMillis();
+        if (nextHistorySeq < 0) nextHistorySeq = page.pageStart;
+        if (page.firstSeq < nextHistorySeq) return List.of();
+        pendingHistory.put(page.firstSeq, page);
+
+        var ready = new ArrayList<Message>();
+        HistoryPage next;
+        while ((next = pendingHistory.remove(nextHistorySeq)) != null) {
+            ready.addAll(next.entries);
+            historyRemaining -= next.count;
+            nextHistorySeq = next.nextSeq();
+            if (next.last) {
+                historyQuery = null;
+                pendingHistory.clear();
+                break;
+            }
+        }
+        return ready;
+    }
+
+    private synchronized void retryStalledHistory() {
+        if (historyQuery == null || System.currentTimeMillis() - lastHistoryActivity < HISTORY_RETRY_MILLIS) return;
+
+        lastHistoryActivity = System.currentTimeMillis();
+        var query = nextHistorySeq < 0 ? historyQuery : HistoryPage.bySequence(nextHistorySeq, Math.max(historyRemaining, 1));
+        try {
+            sendMessage(new Message(query, nickname, Message.Type.HISTORY_REQUEST));
+        } catch (IOException e) {
+            System.err.println("Failed to retry history request: " + e.getMessage());
+        }
     }
 
     private void loadMessageHistory(String historyContent) {
@@ -74,10 +193,80 @@ public class Client implements Closeable {
         return port;
     }
 
+    public boolean isBinary() {
+        return binary;
+    }
+
     public void sendMessage(Message message) throws IOException {
-        var buf = message.toNetworkString().getBytes(StandardCharsets.UTF_8);
-        var packet = new DatagramPacket(buf, buf.length, address, port);
-        socket.send(packet);
+        var buf = message.encode(binary);
+        if (buf.length > MessageView.MAX_MESSAGE_SIZE) throw new IOException("Message too large: " + buf.length + " bytes");
+        if (deflate) {
+            var compressed = Compression.compress(buf, buf.length);
+            if (compressed != null) buf = compressed;
+        }
+        var reliable = ReliableEndpoint.isReliable(message.getType()) ? endpoint : null;
+        if (buf.length <= Fragments.FRAGMENT_BYTES) {
+            send(buf, reliable);
+            return;
+        }
+
+        List<byte[]> fragments;
+        synchronized (this) {
+            fragments = Fragments.split(nextFragmentId++, buf, buf.length);
+        }
+        for (var fragment : fragments) send(fragment, reliable);
+    }
+
+    private void send(byte[] data, ReliableEndpoint reliable) throws IOException {
+        if (reliable != null) {
+            if (!reliable.send(data, data.length)) throw new IOException("Send backlog full: the server has stopped acknowledging");
+        } else {
+            sendRaw(data, data.length);
+        }
+    }
+
+    private void sendRaw(byte[] data, int length) throws IOException {
+        socket.send(new DatagramPacket(data, length, address, port));
+    }
+
+    // Strips the reliability framing and reassembles fragments. Returns null for ACKs, duplicates,
+    // incomplete messages and frames that arrived out of order; the latter are handed back later
+    // through pollReady().
+    private ByteBuffer unwrap(ByteBuffer packet) throws IOException {
+        var marker = packet.hasRemaining() ? packet.get(packet.position()) : 0;
+        if (marker == ReliableEndpoint.ACK) {
+            var reliable = endpoint;
+            if (reliable != null) reliable.onAck(packet);
+            return null;
+        }
+        if (marker == ReliableEndpoint.DATA) {
+            if (endpoint == null) startReliability();
+            if (endpoint.onData(packet) != ReliableEndpoint.DELIVER) return null;
+        }
+        return reassemble(packet);
+    }
+
+    private ByteBuffer pollReady() throws IOException {
+        var reliable = endpoint;
+        if (reliable == null) return null;
+
+        ByteBuffer ready;
+        while ((ready = reliable.pollReady()) != null) {
+            var payload = reassemble(ready);
+            if (payload != null) return payload;
+        }
+        return null;
+    }
+
+    private ByteBuffer reassemble(ByteBuffer payload) throws IOException {
+        return Fragments.isFragment(payload) ? reassembly.offer(serverAddress, payload) : payload;
+    }
+
+    private synchronized void startReliability() {
+        if (endpoint != null) return;
+        var reliable = new ReliableEndpoint(serverAddress, (data, length, target) -> sendRaw(data, length));
+        reliabilityTick = ReliableEndpoint.schedule(timer, reliable::tick, ReliableEndpoint.TICK_MILLIS);
+        endpoint = reliable;
     }
 
     public void sendMessage(String msg) throws IOException {
@@ -88,11 +277,50 @@ public class Client implements Closeable {
         sendMessage(new Message(msg, nickname, Message.Type.CHAT_PRIVATE));
     }
 
+    public void sendDirectMessage(String recipient, String msg) throws IOException {
+        sendMessage(new Message(DirectMessage.content(recipient, msg), nickname, Message.Type.DIRECT_MESSAGE));
+    }
+
+    // Keeps the server from expiring a client that is only listening. Three heartbeats fit in the
+    // server's default idle timeout, so a single lost PING does not drop the session.
+    private void sendHeartbeat() {
+        try {
+            sendMessage(new Message("", nickname, Message.Type.PING));
+        } catch (IOException e) {
+            System.err.println("Failed to send heartbeat: " + e.getMessage());
+        }
+    }
+
+    public void joinRoom(String room) throws IOException {
+        sendMessage(new Message(Room.content(room, ""), nickname, Message.Type.ROOM_JOIN));
+    }
+
+    public void partRoom(String room) throws IOException {
+        sendMessage(new Message(Room.content(room, ""), nickname, Message.Type.ROOM_PART));
+    }
+
+    public void sendRoomMessage(String room, String msg) throws IOException {
+        sendMessage(new Message(Room.content(room, msg), nickname, Message.Type.ROOM_MESSAGE));
+    }
+
     public Message receive() throws IOException {
-        var packet = new DatagramPacket(new byte[1024], 1024);
-        socket.receive(packet);
-        var received = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-        return Message.fromNetworkString(received, "Server");
+        var packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        while (true) {
+            var payload = pollReady();
+            if (payload == null) {
+                packet.setLength(receiveBuffer.length);
+                socket.receive(packet);
+                payload = unwrap(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+            }
+            if (payload == null) continue;
+
+            var message = decode(payload);
+            if (message.getType() != Message.Type.PONG) return message;
+        }
+    }
+
+    private static Message decode(ByteBuffer payload) throws ProtocolException {
+        return Message.decode(Compression.isCompressed(payload) ? Compression.inflate(payload) : payload, "Server");
     }
 
     public String[] getHistory() {
@@ -106,8 +334,14 @@ public class Client implements Closeable {
     @Override
     public void close() {
         if (!socket.isClosed()) {
+            historyRetry.cancel(false);
+            heartbeat.cancel(false);
+            synchronized (this) {
+                if (reliabilityTick != null) reliabilityTick.cancel(false);
+            }
             try {
-                sendMessage(new Message(nickname, "", Message.Type.LEAVE));
+                var leave = new Message(nickname, "", Message.Type.LEAVE).encode(binary);
+                sendRaw(leave, leave.length);
             } catch (Exception ignored) {
             }
             socket.close();
@@ -0,0 +1,32 @@
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Map;
+
+// Immutable snapshot of broadcast recipients and their reliable endpoints, resolved once when
+// membership changes so a fan-out never has to touch the client set or the endpoint map.
+public final class Destinations {
+    public static final Destinations EMPTY = new Destinations(new InetSocketAddress[0], Map.of());
+
+    final InetSocketAddress[] addresses;
+    final ReliableEndpoint[] endpoints;
+
+    private Destinations(InetSocketAddress[] addresses, Map<? extends SocketAddress, ReliableEndpoint> endpoints) {
+        this.addresses = addresses;
+        this.endpoints = new ReliableEndpoint[addresses.length];
+        for (int i = 0; i < addresses.length; i++) this.endpoints[i] = endpoints.get(addresses[i]);
+    }
+
+    public static Destinations of(Collection<InetSocketAddress> addresses) {
+        return of(addresses, Map.of());
+    }
+
+    public static Destinations of(Collection<InetSocketAddress> addresses, Map<? extends SocketAddress, ReliableEndpoint> endpoints) {
+        if (addresses.isEmpty()) return EMPTY;
+        return new Destinations(addresses.toArray(new InetSocketAddress[0]), endpoints);
+    }
+
+    public int size() {
+        return addresses.length;
+    }
+}
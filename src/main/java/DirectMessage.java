@@ -0,0 +1,31 @@
+import java.net.ProtocolException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+// Content format for DIRECT_MESSAGE: "<recipient>:<text>" with the recipient URL-encoded, since
+// nicknames may contain ':'. The server forwards the content unchanged to the recipient alone,
+// with the sender field set to the author's registered nickname.
+public final class DirectMessage {
+    private DirectMessage() {
+    }
+
+    public static String content(String recipient, String text) {
+        return URLEncoder.encode(recipient, StandardCharsets.UTF_8) + ":" + text;
+    }
+
+    public static String recipientOf(String content) throws ProtocolException {
+        var colon = content.indexOf(':');
+        var recipient = colon < 0 ? content : content.substring(0, colon);
+        try {
+            return URLDecoder.decode(recipient, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolException("Invalid recipient: " + recipient);
+        }
+    }
+
+    public static String textOf(String content) {
+        var colon = content.indexOf(':');
+        return colon < 0 ? "" : content.substring(colon + 1);
+    }
+}
@@ -0,0 +1,458 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Links a server to its peer nodes over the server's own UDP socket. Every packet between nodes is
+// an envelope ([0xB5][sender node id varint][receiver node id varint][frame]) around a reliability
+// frame or a raw payload. Payloads are RELAY ([1][message id varint][message in the text wire
+// format]), sent reliably through a per-peer ReliableEndpoint and fragmented like client traffic when
+// large, and ROSTER ([2][version varint][page varint][pages varint][count varint][users as strings]),
+// sent raw whenever the local users change and at least every ROSTER_MILLIS. A roster is split into
+// pages that each fit one packet, so it never depends on every fragment of a large payload arriving
+// together; the version only moves when the users do, so a page lost once is filled in by the next
+// resend. A peer not heard from for PEER_TIMEOUT_MILLIS drops out of the merged user list.
+//
+// Node ids are random per process. A peer that shows up with a new id has restarted, so its link is
+// reset, and frames addressed to an id this node no longer has are dropped before they reach the
+// link, so neither side's reliable stream is confused by the other's previous life. Relays are
+// de-duplicated per origin by message id over the last WINDOW_IDS ids.
+//
+// Peers are not forwarded to each other, so every node must list every other one. chat.server.peers
+// takes a comma-separated host:port list; a node skips its own entry, so one list serves the cluster.
+public final class Federation {
+    public static final String PEERS_PROPERTY = "chat.server.peers";
+    public static final byte MAGIC = (byte) 0xB5;
+    private static final byte RELAY = 1;
+    private static final byte ROSTER = 2;
+    private static final long ROSTER_MILLIS = 1000;
+    private static final long PEER_TIMEOUT_MILLIS = 3 * ROSTER_MILLIS;
+    private static final int MAX_ROSTER_PAGES = 1024;
+    private static final int WINDOW_IDS = 1024;
+    private static final int MAX_PARTIALS_PER_PEER = 64;
+    private static final long MAX_REASSEMBLY_BYTES = 8L * 1024 * 1024;
+    private static final long REASSEMBLY_TIMEOUT_MILLIS = 5000;
+    private static final ThreadLocal<ByteBuffer> ENVELOPE = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MessageView.MAX_PACKET_SIZE));
+
+    public interface Listener {
+        // A message relayed by a peer, in the text wire format. The view belongs to the receiving
+        // thread and may be used to decode it.
+        void relayed(byte[] text, int length, MessageView view) throws IOException;
+    }
+
+    private final class Link {
+        final InetSocketAddress address;
+        volatile ReliableEndpoint endpoint;
+        volatile long node;
+        volatile long rosterVersion = -1;
+        volatile List<String> roster = List.of();
+        volatile long lastHeard;
+        // Pages of the newest roster version not yet complete, guarded by the link
+        long pendingVersion = -1;
+        List<List<String>> pendingPages;
+        int pendingMissing;
+
+        Link(InetSocketAddress address) {
+            this.address = address;
+            this.endpoint = newEndpoint();
+        }
+
+        ReliableEndpoint newEndpoint() {
+            return new ReliableEndpoint(address, (data, length, to) -> send(this, data, length));
+        }
+
+        synchronized void observe(long id) {
+            if (node == id) return;
+            if (node != 0) {
+                windows.remove(node);
+                reassembly.forget(address);
+                endpoint = newEndpoint();
+                rosterVersion = -1;
+                roster = List.of();
+                pendingVersion = -1;
+                pendingPages = null;
+                restarts.increment();
+            }
+            node = id;
+        }
+
+        boolean isLive(long now) {
+            return node != 0 && now - lastHeard < PEER_TIMEOUT_MILLIS;
+        }
+    }
+
+    // Ids seen from one origin: the highest, plus a bitmap of the WINDOW_IDS ids below it.
+    private static final class Window {
+        private final long[] seen = new long[WINDOW_IDS / 64];
+        private long highest;
+
+        synchronized boolean accept(long id) {
+            if (id > highest) {
+                for (long i = highest + 1; i <= id && i <= highest + WINDOW_IDS; i++) clear(i);
+                highest = id;
+            } else if (highest - id >= WINDOW_IDS || isSet(id)) {
+                return false;
+            }
+            seen[index(id)] |= 1L << id;
+            return true;
+        }
+
+        private boolean isSet(long id) {
+            return (seen[index(id)] & (1L << id)) != 0;
+        }
+
+        private void clear(long id) {
+            seen[index(id)] &= ~(1L << id);
+        }
+
+        private static int index(long id) {
+            return (int) ((id & (WINDOW_IDS - 1)) >>> 6);
+        }
+    }
+
+    private final long node = newNodeId();
+    private final ReliableEndpoint.Transport transport;
+    private final Supplier<Collection<String>> localUsers;
+    private final Listener listener;
+    private final Map<SocketAddress, Link> links = new LinkedHashMap<>();
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+    private final Fragments reassembly = new Fragments(MAX_PARTIALS_PER_PEER, MAX_REASSEMBLY_BYTES, REASSEMBLY_TIMEOUT_MILLIS);
+    private final AtomicLong messageIds = new AtomicLong();
+    private volatile boolean rosterDirty = true;
+    private long rosterSentAt;
+    private long rosterVersion;
+    private List<String> rosterUsers;
+    private List<byte[]> rosterPackets = List.of();
+    private ScheduledFuture<?> tick;
+
+    private final LongAdder relayed = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder restarts = new LongAdder();
+
+    public Federation(Collection<InetSocketAddress> peers, ReliableEndpoint.Transport transport,
+                      Supplier<Collection<String>> localUsers, Listener listener) {
+        this.transport = transport;
+        this.localUsers = localUsers;
+        this.listener = listener;
+        for (var peer : peers) links.putIfAbsent(peer, new Link(peer));
+    }
+
+    // Returns null when no peers are configured, or when the only one listed is this node.
+    public static Federation fromProperties(int port, ReliableEndpoint.Transport transport,
+                                            Supplier<Collection<String>> localUsers, Listener listener) {
+        var configured = System.getProperty(PEERS_PROPERTY, "").trim();
+        if (configured.isEmpty()) return null;
+
+        var peers = new ArrayList<InetSocketAddress>();
+        for (var entry : configured.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            var colon = entry.lastIndexOf(':');
+            if (colon < 0) throw new IllegalArgumentException("Expected host:port in " + PEERS_PROPERTY + ", got " + entry);
+            var peer = new InetSocketAddress(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1)));
+            if (peer.isUnresolved()) throw new IllegalArgumentException("Unknown peer host in " + PEERS_PROPERTY + ": " + entry);
+            if (!isSelf(peer, port)) peers.add(peer);
+        }
+        return peers.isEmpty() ? null : new Federation(peers, transport, localUsers, listener);
+    }
+
+    private static boolean isSelf(InetSocketAddress peer, int port) {
+        if (peer.getPort() != port) return false;
+        var address = peer.getAddress();
+        if (address.isAnyLocalAddress() || address.isLoopbackAddress()) return true;
+        try {
+            return NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    private static long newNodeId() {
+        var random = new SecureRandom();
+        long id;
+        do {
+            id = random.nextLong() >>> 1;
+        } while (id == 0);
+        return id;
+    }
+
+    public synchronized void start() {
+        if (tick == null) tick = ReliableEndpoint.schedule(this::tick);
+    }
+
+    public synchronized void close() {
+        if (tick != null) tick.cancel(false);
+    }
+
+    public boolean isPeer(SocketAddress address) {
+        return links.containsKey(address);
+    }
+
+    // Local users changed; peers hear about it on the next tick.
+    public void rosterChanged() {
+        rosterDirty = true;
+    }
+
+    // Relays a message in the text wire format to every peer. A message within a few bytes of the
+    // size limit no longer fits once the envelope is added; it stays local rather than failing the
+    // caller before it has broadcast to its own clients.
+    public void relay(byte[] text, int length) {
+        var id = messageIds.incrementAndGet();
+        var payload = new byte[1 + Codec.varLongSize(id) + length];
+        var frame = ByteBuffer.wrap(payload).put(RELAY);
+        Codec.writeVarLong(frame, id);
+        frame.put(text, 0, length);
+
+        List<byte[]> packets;
+        try {
+            packets = payload.length > Fragments.FRAGMENT_BYTES ? Fragments.split(id, payload, payload.length) : List.of(payload);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Message of " + length + " bytes is too large to relay to peers");
+            return;
+        }
+        // Each link queues what its window cannot take yet; only a peer that has left a whole
+        // backlog unacknowledged loses the message, and that is counted in getLost()
+        for (var link : links.values()) {
+            var endpoint = link.endpoint;
+            for (var packet : packets) {
+                if (!endpoint.send(packet, packet.length)) {
+                    System.err.println("Relay backlog to peer " + link.address + " is full, dropping message " + id);
+                    break;
+                }
+            }
+        }
+        relayed.increment();
+    }
+
+    // Users on the peers heard from recently, by peer address.
+    public Map<String, List<String>> remoteUsers() {
+        var now = System.currentTimeMillis();
+        var users = new LinkedHashMap<String, List<String>>();
+        for (var link : links.values()) {
+            if (link.isLive(now)) users.put(link.address.getAddress().getHostAddress() + ":" + link.address.getPort(), link.roster);
+        }
+        return users;
+    }
+
+    public int livePeers() {
+        var now = System.currentTimeMillis();
+        return (int) links.values().stream().filter(link -> link.isLive(now)).count();
+    }
+
+    public long getRelayed() {
+        return relayed.sum();
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getStale() {
+        return stale.sum();
+    }
+
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    public long getLost() {
+        return links.values().stream().mapToLong(link -> link.endpoint.getLost()).sum();
+    }
+
+    // Handles a packet from a peer address, as the server's receive path would a client's.
+    public void onPacket(InetSocketAddress address, ByteBuffer packet, MessageView view) throws IOException {
+        var link = links.get(address);
+        if (link == null) return;
+        if (!packet.hasRemaining() || packet.get() != MAGIC) throw new ProtocolException("Unexpected packet from peer " + address);
+
+        var sender = Codec.readVarLong(packet);
+        var receiver = Codec.readVarLong(packet);
+        // Zero means the peer has not heard from this node yet, so its link to us is new as well
+        if (receiver != 0 && receiver != node) {
+            stale.increment();
+            return;
+        }
+        link.observe(sender);
+        link.lastHeard = System.currentTimeMillis();
+
+        var marker = packet.hasRemaining() ? packet.get(packet.position()) : 0;
+        var endpoint = link.endpoint;
+        if (marker == ReliableEndpoint.ACK) {
+            endpoint.onAck(packet);
+        } else if (marker == ReliableEndpoint.DATA) {
+            if (endpoint.onData(packet) == ReliableEndpoint.DELIVER) dispatch(link, sender, packet, view);
+
+            ByteBuffer ready;
+            while ((ready = endpoint.pollReady()) != null) dispatch(link, sender, ready, view);
+        } else {
+            dispatch(link, sender, packet, view);
+        }
+    }
+
+    private void dispatch(Link link, long sender, ByteBuffer payload, MessageView view) throws IOException {
+        if (Fragments.isFragment(payload)) {
+            payload = reassembly.offer(link.address, payload);
+            if (payload == null) return;
+        }
+        if (!payload.hasRemaining()) throw new ProtocolException("Empty frame from peer " + link.address);
+
+        var kind = payload.get();
+        switch (kind) {
+            case RELAY:
+                var id = Codec.readVarLong(payload);
+                if (!windows.computeIfAbsent(sender, s -> new Window()).accept(id)) {
+                    duplicates.increment();
+                    return;
+                }
+                received.increment();
+                var text = new byte[payload.remaining()];
+                payload.get(text);
+                listener.relayed(text, text.length, view);
+                break;
+            case ROSTER:
+                readRoster(link, payload);
+                break;
+            default:
+                throw new ProtocolException("Unknown frame " + kind + " from peer " + link.address);
+        }
+    }
+
+    private static void readRoster(Link link, ByteBuffer payload) throws ProtocolException {
+        var version = Codec.readVarLong(payload);
+        var page = Codec.readVarLong(payload);
+        var pages = Codec.readVarLong(payload);
+        if (pages < 1 || pages > MAX_ROSTER_PAGES || page < 0 || page >= pages) {
+            throw new ProtocolException("Invalid roster page " + page + " of " + pages);
+        }
+        var count = Codec.readVarLong(payload);
+        if (count < 0 || count > payload.remaining()) throw new ProtocolException("Invalid roster size " + count);
+
+        var users = new ArrayList<String>((int) count);
+        for (long i = 0; i < count; i++) users.add(Codec.readString(payload));
+        // Rosters travel unreliably and may be reordered, so only pages of a newer version than the
+        // last complete one count, and a newer version abandons the pages of an older one
+        synchronized (link) {
+            if (version <= link.rosterVersion || version < link.pendingVersion) return;
+            if (version > link.pendingVersion || link.pendingPages.size() != pages) {
+                link.pendingVersion = version;
+                link.pendingPages = new ArrayList<>(Collections.nCopies((int) pages, null));
+                link.pendingMissing = (int) pages;
+            }
+            if (link.pendingPages.get((int) page) != null) return;
+            link.pendingPages.set((int) page, users);
+            if (--link.pendingMissing > 0) return;
+
+            var roster = new ArrayList<String>();
+            for (var part : link.pendingPages) roster.addAll(part);
+            link.rosterVersion = version;
+            link.roster = List.copyOf(roster);
+            link.pendingPages = null;
+        }
+    }
+
+    private void send(Link link, byte[] frame, int length) throws IOException {
+        var envelope = ENVELOPE.get().clear();
+        envelope.put(MAGIC);
+        Codec.writeVarLong(envelope, node);
+        Codec.writeVarLong(envelope, link.node);
+        envelope.put(frame, 0, length);
+        transport.send(envelope.array(), envelope.position(), link.address);
+    }
+
+    private void tick() {
+        for (var link : links.values()) link.endpoint.tick();
+
+        var now = System.currentTimeMillis();
+        if (!rosterDirty && now - rosterSentAt < ROSTER_MILLIS) return;
+        rosterDirty = false;
+        rosterSentAt = now;
+        sendRoster();
+    }
+
+    private void sendRoster() {
+        var users = List.copyOf(localUsers.get());
+        if (!users.equals(rosterUsers)) {
+            var packets = rosterPackets(rosterVersion + 1, users);
+            if (packets == null) {
+                System.err.println("Roster of " + users.size() + " users is too large to send to peers");
+                return;
+            }
+            rosterVersion++;
+            rosterUsers = users;
+            rosterPackets = packets;
+        }
+        for (var link : links.values()) {
+            for (var packet : rosterPackets) {
+                try {
+                    send(link, packet, packet.length);
+                } catch (IOException e) {
+                    System.err.println("Failed to send roster to peer " + link.address + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Splits the users into pages of whole users that each fit one fragment. Only a page holding a
+    // single user whose name alone is larger goes out as fragments. Returns null when the roster
+    // needs more than MAX_ROSTER_PAGES pages.
+    private List<byte[]> rosterPackets(long version, List<String> users) {
+        // Page numbers are at most two varint bytes each, and the user count at most three
+        var header = 1 + Codec.varLongSize(version) + 2 + 2 + 3;
+        var bounds = new ArrayList<Integer>();
+        var size = header;
+        for (int i = 0; i < users.size(); i++) {
+            var userSize = Codec.stringSize(users.get(i));
+            if (size + userSize > Fragments.FRAGMENT_BYTES && size > header) {
+                bounds.add(i);
+                size = header;
+            }
+            size += userSize;
+        }
+        bounds.add(users.size());
+        if (bounds.size() > MAX_ROSTER_PAGES) return null;
+
+        var packets = new ArrayList<byte[]>();
+        var from = 0;
+        for (int page = 0; page < bounds.size(); page++) {
+            var to = bounds.get(page);
+            var length = 1 + Codec.varLongSize(version) + Codec.varLongSize(page) + Codec.varLongSize(bounds.size()) + Codec.varLongSize(to - from);
+            for (int i = from; i < to; i++) length += Codec.stringSize(users.get(i));
+
+            var payload = new byte[length];
+            var frame = ByteBuffer.wrap(payload).put(ROSTER);
+            Codec.writeVarLong(frame, version);
+            Codec.writeVarLong(frame, page);
+            Codec.writeVarLong(frame, bounds.size());
+            Codec.writeVarLong(frame, to - from);
+            for (int i = from; i < to; i++) Codec.writeString(frame, users.get(i));
+            try {
+                packets.addAll(length > Fragments.FRAGMENT_BYTES ? Fragments.split(messageIds.incrementAndGet(), payload, length) : List.of(payload));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            from = to;
+        }
+        return packets;
+    }
+}
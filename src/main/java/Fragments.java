@@ -0,0 +1,212 @@
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Splits encoded messages that do not fit one datagram into FRAGMENT frames
+// ([0xB4][message id varint][index varint][count varint][bytes]) and reassembles them on receipt.
+// Every fragment but the last carries exactly FRAGMENT_BYTES, and a whole message is at most
+// MessageView.MAX_MESSAGE_SIZE. Partial messages live in a table bounded per peer and in total
+// bytes, and are evicted oldest-first when a limit or timeout is hit.
+public final class Fragments {
+    public static final byte MAGIC = (byte) 0xB4;
+    public static final String CAPABILITY = "frag1";
+    public static final int FRAGMENT_BYTES = 1200;
+    public static final int MAX_FRAGMENTS = (MessageView.MAX_MESSAGE_SIZE + FRAGMENT_BYTES - 1) / FRAGMENT_BYTES;
+    public static final int MAX_FRAME_SIZE = FRAGMENT_BYTES + 1 + 3 * 10;
+
+    private static final class Key {
+        final SocketAddress peer;
+        final long id;
+
+        Key(SocketAddress peer, long id) {
+            this.peer = peer;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            var other = (Key) o;
+            return id == other.id && peer.equals(other.peer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(peer, id);
+        }
+    }
+
+    private static final class Partial {
+        final byte[] data;
+        final boolean[] received;
+        final long createdAt;
+        int remaining;
+        int length;
+
+        Partial(int count, long createdAt) {
+            this.data = new byte[count * FRAGMENT_BYTES];
+            this.received = new boolean[count];
+            this.remaining = count;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final int maxPerPeer;
+    private final long maxBytes;
+    private final long timeoutMillis;
+    private final LinkedHashMap<Key, Partial> partials = new LinkedHashMap<>();
+    private final Map<SocketAddress, Integer> perPeer = new HashMap<>();
+    private long bytes;
+    private long dropped;
+
+    public Fragments(int maxPerPeer, long maxBytes, long timeoutMillis) {
+        this.maxPerPeer = maxPerPeer;
+        this.maxBytes = maxBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static boolean isFragment(ByteBuffer packet) {
+        return packet.hasRemaining() && packet.get(packet.position()) == MAGIC;
+    }
+
+    public static List<byte[]> split(long id, byte[] data, int length) {
+        if (length > MessageView.MAX_MESSAGE_SIZE) throw new IllegalArgumentException("Message too large to fragment: " + length + " bytes");
+        var count = (length + FRAGMENT_BYTES - 1) / FRAGMENT_BYTES;
+
+        var fragments = new ArrayList<byte[]>(count);
+        for (int index = 0; index < count; index++) {
+            var offset = index * FRAGMENT_BYTES;
+            var size = Math.min(FRAGMENT_BYTES, length - offset);
+            var header = 1 + Codec.varLongSize(id) + Codec.varLongSize(index) + Codec.varLongSize(count);
+            var frame = ByteBuffer.allocate(header + size);
+            frame.put(MAGIC);
+            Codec.writeVarLong(frame, id);
+            Codec.writeVarLong(frame, index);
+            Codec.writeVarLong(frame, count);
+            frame.put(data, offset, size);
+            fragments.add(frame.array());
+        }
+        return fragments;
+    }
+
+    // Returns the reassembled message once its last missing fragment arrives, otherwise null.
+    // The fragment bytes are copied, so the caller may reuse the frame buffer.
+    public synchronized ByteBuffer offer(SocketAddress peer, ByteBuffer frame) throws ProtocolException {
+        frame.get();
+        var id = Codec.readVarLong(frame);
+        var index = Codec.readVarLong(frame);
+        var count = Codec.readVarLong(frame);
+        if (count < 1 || count > MAX_FRAGMENTS || index < 0 || index >= count) {
+            throw new ProtocolException("Invalid fragment " + index + "/" + count);
+        }
+        var size = frame.remaining();
+        var last = index == count - 1;
+        if (size > FRAGMENT_BYTES || (!last && size != FRAGMENT_BYTES)) {
+            throw new ProtocolException("Invalid fragment size " + size);
+        }
+        if (last && index * FRAGMENT_BYTES + size > MessageView.MAX_MESSAGE_SIZE) {
+            throw new ProtocolException("Fragmented message too large: " + (index * FRAGMENT_BYTES + size) + " bytes");
+        }
+
+        var now = System.currentTimeMillis();
+        expire(now);
+
+        var key = new Key(peer, id);
+        var partial = partials.get(key);
+        if (partial == null) {
+            partial = admit(key, (int) count, now);
+            if (partial == null) return null;
+        } else if (partial.received.length != count) {
+            throw new ProtocolException("Fragment count changed for message " + id);
+        }
+
+        if (partial.received[(int) index]) return null;
+        partial.received[(int) index] = true;
+        frame.get(partial.data, (int) index * FRAGMENT_BYTES, size);
+        if (last) partial.length = (int) index * FRAGMENT_BYTES + size;
+        if (--partial.remaining > 0) return null;
+
+        remove(key, partial);
+        return ByteBuffer.wrap(partial.data, 0, partial.length);
+    }
+
+    public synchronized void forget(SocketAddress peer) {
+        var it = partials.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            if (entry.getKey().peer.equals(peer)) discard(it, entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized int getPending() {
+        return partials.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    private Partial admit(Key key, int count, long now) {
+        var cost = (long) count * FRAGMENT_BYTES;
+        if (cost > maxBytes) {
+            dropped++;
+            return null;
+        }
+
+        while (perPeer.getOrDefault(key.peer, 0) >= maxPerPeer) evictOldest(key.peer);
+        while (bytes + cost > maxBytes) evictOldest(null);
+
+        var partial = new Partial(count, now);
+        partials.put(key, partial);
+        perPeer.merge(key.peer, 1, Integer::sum);
+        bytes += cost;
+        return partial;
+    }
+
+    private void expire(long now) {
+        var it = partials.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            if (now - entry.getValue().createdAt < timeoutMillis) break;
+            discard(it, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void evictOldest(SocketAddress peer) {
+        var it = partials.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            if (peer == null || entry.getKey().peer.equals(peer)) {
+                discard(it, entry.getKey(), entry.getValue());
+                return;
+            }
+        }
+    }
+
+    private void discard(Iterator<Map.Entry<Key, Partial>> it, Key key, Partial partial) {
+        it.remove();
+        release(key, partial);
+        dropped++;
+    }
+
+    private void remove(Key key, Partial partial) {
+        partials.remove(key);
+        release(key, partial);
+    }
+
+    private void release(Key key, Partial partial) {
+        bytes -= partial.data.length;
+        perPeer.computeIfPresent(key.peer, (peer, n) -> n > 1 ? n - 1 : null);
+    }
+}
@@ -0,0 +1,95 @@
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Content formats for paged history sync. A paged WELCOME carries "paged:<oldest>:<tail>", a
+// HISTORY_REQUEST carries "<seq|time>:<value>:<limit>" and every HISTORY_CHUNK starts with
+// "<pageStart>:<firstSeq>:<count>:<last>:" followed by whole "||"-terminated history entries. An
+// entry too large for the requesting client's chunks is cut short and marked TRUNCATED.
+public final class HistoryPage {
+    public static final String CAPABILITY = "page1";
+    public static final String WELCOME_PREFIX = "paged:";
+    public static final int CHUNK_BYTES = 1200;
+    public static final int MAX_LIMIT = 500;
+    public static final String TRUNCATED = " [truncated]";
+
+    public final long pageStart;
+    public final long firstSeq;
+    public final int count;
+    public final boolean last;
+    public final List<Message> entries;
+
+    private HistoryPage(long pageStart, long firstSeq, int count, boolean last, List<Message> entries) {
+        this.pageStart = pageStart;
+        this.firstSeq = firstSeq;
+        this.count = count;
+        this.last = last;
+        this.entries = entries;
+    }
+
+    public long nextSeq() {
+        return firstSeq + count;
+    }
+
+    public static String welcome(long oldest, long tail) {
+        return WELCOME_PREFIX + oldest + ":" + tail;
+    }
+
+    public static long[] parseWelcome(String content) throws ProtocolException {
+        var parts = content.substring(WELCOME_PREFIX.length()).split(":");
+        try {
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch (RuntimeException e) {
+            throw new ProtocolException("Malformed paged welcome: " + content);
+        }
+    }
+
+    public static String bySequence(long fromSeq, int limit) {
+        return "seq:" + fromSeq + ":" + limit;
+    }
+
+    public static String sinceTime(long epochMillis, int limit) {
+        return "time:" + epochMillis + ":" + limit;
+    }
+
+    public static byte[] chunk(long pageStart, MessageRing.Range range, boolean last) {
+        var header = (pageStart + ":" + range.firstSeq + ":" + range.count + ":" + (last ? 1 : 0) + ":").getBytes(StandardCharsets.US_ASCII);
+        var content = new byte[header.length + range.data.length];
+        System.arraycopy(header, 0, content, 0, header.length);
+        System.arraycopy(range.data, 0, content, header.length, range.data.length);
+        return content;
+    }
+
+    // A range holding one entry longer than maxBytes, as the ring returns when that entry alone
+    // overflows a chunk, with the entry cut at a character boundary so the chunk can still be sent.
+    // Any other range is returned as it was.
+    public static MessageRing.Range capEntry(MessageRing.Range range, int maxBytes) {
+        if (range.count != 1 || range.data.length <= maxBytes) return range;
+
+        var marker = TRUNCATED.getBytes(StandardCharsets.US_ASCII);
+        var keep = maxBytes - marker.length - 2;
+        while (keep > 0 && (range.data[keep] & 0xC0) == 0x80) keep--;
+        var data = Arrays.copyOf(range.data, keep + marker.length + 2);
+        System.arraycopy(marker, 0, data, keep, marker.length);
+        data[data.length - 2] = '|';
+        data[data.length - 1] = '|';
+        return new MessageRing.Range(range.firstSeq, 1, data);
+    }
+
+    public static HistoryPage parse(String content) throws ProtocolException {
+        var parts = content.split(":", 5);
+        if (parts.length < 5) throw new ProtocolException("Malformed history chunk");
+
+        try {
+            var entries = new ArrayList<Message>();
+            for (var entry : parts[4].split("\\|\\|")) {
+                if (!entry.isEmpty()) entries.add(Message.fromNetworkString(entry, "Server"));
+            }
+            return new HistoryPage(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]), "1".equals(parts[3]), entries);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Malformed history chunk header");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless load test: joins simulated users to a server over loopback, has each of them chat at a
+// fixed rate, and reports throughput, end-to-end latency taken from the embedded message timestamps,
+// and the share of expected broadcast deliveries that never arrived.
+//
+//   java LoadGenerator --clients 2000 --join-rate 200 --rate 1 --payload 64 --private 0.05 --duration 30
+//
+// Without --host an embedded server is started on a free loopback port using the engine selected by
+// -Dchat.server.engine. The simulated clients' heartbeats and 10ms reliability ticks run on a timer
+// pool of their own, so they neither queue behind one thread nor hold up the embedded server's ticks.
+public class LoadGenerator {
+    private static final String PREFIX = "load:";
+    private static final int MAX_LATENCY_MILLIS = 60_000;
+    private static final long DRAIN_MILLIS = 2000;
+
+    private final String host;
+    private final int port;
+    private final int clientCount;
+    private final double joinRate;
+    private final double messageRate;
+    private final int payloadSize;
+    private final double privateRatio;
+    private final int durationSeconds;
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timers = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+        var thread = new Thread(r, "Load-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLongArray latencies = new AtomicLongArray(MAX_LATENCY_MILLIS + 1);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentPrivate = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failedJoins = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private volatile boolean measuring;
+
+    private LoadGenerator(Map<String, String> options) throws IOException {
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = options.containsKey("port") ? Integer.parseInt(options.get("port")) : freePort();
+        this.clientCount = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        this.joinRate = Double.parseDouble(options.getOrDefault("join-rate", "200"));
+        this.messageRate = Double.parseDouble(options.getOrDefault("rate", "1"));
+        this.payloadSize = Integer.parseInt(options.getOrDefault("payload", "64"));
+        this.privateRatio = Double.parseDouble(options.getOrDefault("private", "0"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = parseOptions(args);
+        var generator = new LoadGenerator(options);
+
+        ChatServer server = null;
+        if (!options.containsKey("host")) {
+            server = ChatServer.create(generator.port);
+            server.setDaemon(true);
+            server.start();
+        }
+        try {
+            generator.run();
+        } finally {
+            if (server != null) server.close();
+        }
+        System.exit(0);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf(Locale.ROOT, "Joining %d clients to %s:%d at %.0f/s%n", clientCount, host, port, joinRate);
+        var joinStart = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            join("user" + i);
+            var due = joinStart + (long) ((i + 1) * 1e9 / joinRate);
+            var wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        System.out.printf(Locale.ROOT, "Joined %d clients (%d failed) in %.1fs%n",
+                clients.size(), failedJoins.sum(), (System.nanoTime() - joinStart) / 1e9);
+
+        var scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        measuring = true;
+        var start = System.nanoTime();
+        schedule(scheduler);
+
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        var elapsed = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(DRAIN_MILLIS);
+        measuring = false;
+
+        report(elapsed);
+        for (var client : clients) client.close();
+        timers.shutdownNow();
+    }
+
+    private void join(String nickname) {
+        try {
+            var client = new Client(host, port, nickname, timers);
+            clients.add(client);
+            var receiver = new Thread(null, () -> receive(client), "Load-" + nickname, 256 * 1024);
+            receiver.setDaemon(true);
+            receiver.start();
+        } catch (IOException e) {
+            failedJoins.increment();
+        }
+    }
+
+    private void schedule(ScheduledExecutorService scheduler) {
+        var periodMicros = Math.max(1, (long) (1_000_000 / messageRate));
+        var random = ThreadLocalRandom.current();
+        var padding = "x".repeat(Math.max(0, payloadSize - PREFIX.length()));
+        for (var client : clients) {
+            scheduler.scheduleAtFixedRate(() -> send(client, padding), random.nextLong(periodMicros), periodMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void send(Client client, String padding) {
+        try {
+            if (privateRatio > 0 && ThreadLocalRandom.current().nextDouble() < privateRatio) {
+                client.sendPrivateMessage(PREFIX + padding);
+                sentPrivate.increment();
+            } else {
+                client.sendMessage(PREFIX + padding);
+                sent.increment();
+            }
+        } catch (IOException e) {
+            sendErrors.increment();
+        }
+    }
+
+    private void receive(Client client) {
+        while (true) {
+            Message message;
+            try {
+                message = client.receive();
+            } catch (IOException e) {
+                return;
+            }
+            if (!measuring || message.getType() != Message.Type.CHAT || !message.getContent().startsWith(PREFIX)) continue;
+
+            var latency = System.currentTimeMillis() - message.getTimestamp().toEpochMilli();
+            latencies.incrementAndGet((int) Math.max(0, Math.min(latency, MAX_LATENCY_MILLIS)));
+            delivered.increment();
+        }
+    }
+
+    private void report(double elapsed) {
+        var messages = sent.sum();
+        var expected = messages * Math.max(0, clients.size() - 1);
+        var received = delivered.sum();
+        var loss = expected == 0 ? 0 : Math.max(0, 1 - (double) received / expected);
+
+        System.out.printf(Locale.ROOT, "Sent:        %d chat + %d private in %.1fs (%d send errors)%n", messages, sentPrivate.sum(), elapsed, sendErrors.sum());
+        System.out.printf(Locale.ROOT, "Throughput:  %.0f msg/s in, %.0f deliveries/s out%n", messages / elapsed, received / elapsed);
+        System.out.printf(Locale.ROOT, "Latency:     p50 %d ms, p99 %d ms, p999 %d ms, max %d ms%n",
+                percentile(0.50), percentile(0.99), percentile(0.999), percentile(1.0));
+        System.out.printf(Locale.ROOT, "Loss:        %.4f%% (%d of %d expected deliveries)%n", loss * 100, expected - Math.min(received, expected), expected);
+    }
+
+    private long percentile(double fraction) {
+        long total = 0;
+        for (int i = 0; i < latencies.length(); i++) total += latencies.get(i);
+        if (total == 0) return 0;
+
+        var rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < latencies.length(); i++) {
+            seen += latencies.get(i);
+            if (seen >= rank) return i;
+        }
+        return MAX_LATENCY_MILLIS;
+    }
+}
@@ -1,12 +1,19 @@
 import javax.swing.*;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.function.Function;
 
 public class Main {
     private static final int MIN_PORT = 1024;
     private static final int MAX_PORT = 65535;
 
-    public static void main(String[] args) {
+    // "--server ..." runs the headless server instead, with the options ServerMain takes.
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--server")) {
+            ServerMain.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         var frame = new JFrame("Chat App");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(400, 300);
@@ -17,7 +24,7 @@ public class Main {
         if (choice == JOptionPane.CLOSED_OPTION) System.exit(0);
 
         Client client = null;
-        Server server = null;
+        ChatServer server = null;
         String nickname = null;
 
         if (choice == 0) {
@@ -25,7 +32,7 @@ public class Main {
             if (port == null) System.exit(0);
 
             try {
-                server = new Server(port);
+                server = ChatServer.create(port);
                 server.start();
 
                 var serverIP = server.getServerIpAddress();
@@ -1,16 +1,26 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Objects;
 
 public class Message {
     private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("h:mm a");
+    // 0xB1 can never start a UTF-8 text packet, so binary and text packets can share a socket
+    public static final byte BINARY_MAGIC = (byte) 0xB1;
+    public static final byte BINARY_VERSION = 1;
+    public static final String BINARY_CAPABILITY = "bin1";
+    private static final Type[] TYPES = Type.values();
     private final String content;
     private final String sender;
     private final Instant timestamp;
     private final Type type;
 
+    // The binary codec sends ordinals, so new types must only be appended
     public enum Type {
         CHAT,
         CHAT_PRIVATE,
@@ -21,6 +31,16 @@ public class Message {
         WELCOME,
         USER_LIST,
         USER_LIST_RESPONSE,
+        HISTORY_REQUEST,
+        HISTORY_CHUNK,
+        SEARCH_REQUEST,
+        SEARCH_RESULT,
+        ROOM_JOIN,
+        ROOM_PART,
+        ROOM_MESSAGE,
+        DIRECT_MESSAGE,
+        PING,
+        PONG,
     }
 
     public Message(String content, String sender, Type type) {
@@ -69,6 +89,86 @@ public class Message {
         }
     }
 
+    public int binarySize() {
+        return 3 + Codec.varLongSize(timestamp.toEpochMilli()) + Codec.stringSize(sender) + Codec.stringSize(content);
+    }
+
+    public void writeBinary(ByteBuffer buffer) {
+        buffer.put(BINARY_MAGIC);
+        buffer.put(BINARY_VERSION);
+        buffer.put((byte) type.ordinal());
+        Codec.writeVarLong(buffer, timestamp.toEpochMilli());
+        Codec.writeString(buffer, sender);
+        Codec.writeString(buffer, content);
+    }
+
+    public byte[] toBinary() {
+        var data = new byte[binarySize()];
+        writeBinary(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    public byte[] encode(boolean binary) {
+        return binary ? toBinary() : toNetworkString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static byte[] encode(Type type, Instant timestamp, String sender, byte[] content, boolean binary) {
+        if (binary) {
+            var buffer = ByteBuffer.allocate(3 + Codec.varLongSize(timestamp.toEpochMilli()) + Codec.stringSize(sender)
+                    + Codec.varLongSize(content.length) + content.length);
+            buffer.put(BINARY_MAGIC).put(BINARY_VERSION).put((byte) type.ordinal());
+            Codec.writeVarLong(buffer, timestamp.toEpochMilli());
+            Codec.writeString(buffer, sender);
+            Codec.writeVarLong(buffer, content.length);
+            return buffer.put(content).array();
+        }
+
+        var header = String.join(":", type.name(), String.valueOf(timestamp.toEpochMilli()), sender, "").getBytes(StandardCharsets.UTF_8);
+        var data = Arrays.copyOf(header, header.length + content.length);
+        System.arraycopy(content, 0, data, header.length, content.length);
+        return data;
+    }
+
+    public static boolean isBinary(ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == BINARY_MAGIC;
+    }
+
+    public static Message fromBinary(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < 3 || buffer.get() != BINARY_MAGIC) throw new ProtocolException("Not a binary message");
+        var version = buffer.get();
+        if (version != BINARY_VERSION) throw new ProtocolException("Unsupported binary version " + version);
+
+        var ordinal = buffer.get() & 0xFF;
+        if (ordinal >= TYPES.length) throw new ProtocolException("Unknown message type " + ordinal);
+
+        var timestamp = Instant.ofEpochMilli(Codec.readVarLong(buffer));
+        var sender = Codec.readString(buffer);
+        var content = Codec.readString(buffer);
+        return new Message(content, sender, timestamp, TYPES[ordinal]);
+    }
+
+    public static Message decode(ByteBuffer buffer, String defaultSender) throws ProtocolException {
+        if (isBinary(buffer)) return fromBinary(buffer);
+
+        String text;
+        if (buffer.hasArray()) {
+            text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+            buffer.position(buffer.limit());
+        } else {
+            var bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return fromNetworkString(text, defaultSender);
+    }
+
+    public static boolean hasCapability(String capabilities, String capability) {
+        for (var entry : capabilities.split(",")) {
+            if (entry.trim().equals(capability)) return true;
+        }
+        return false;
+    }
+
     @Override
     public String toString() {
         return String.format("[%s] %s%s",
@@ -0,0 +1,114 @@
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Bounded list model for the chat view. Lines are formatted by whichever thread produces them and
+// queued; a one-shot Swing timer applies everything queued within a frame to the model as a single
+// batch, with one removal event for the evicted lines and one insertion event for the new ones. The
+// model is a ring of at most capacity lines, so memory stays flat however long the session runs.
+public final class MessageListModel extends AbstractListModel<MessageListModel.Line> {
+    public static final int FRAME_MILLIS = 16;
+
+    public enum Kind {
+        DEFAULT,
+        SYSTEM,
+        JOIN,
+        LEAVE,
+        CHAT,
+        PRIVATE,
+    }
+
+    public static final class Line {
+        public final String timestamp;
+        public final String text;
+        public final Kind kind;
+
+        public Line(String timestamp, String text, Kind kind) {
+            this.timestamp = timestamp;
+            this.text = text;
+            this.kind = kind;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + text;
+        }
+    }
+
+    private final Line[] lines;
+    private int head;
+    private int size;
+    private final Queue<Line> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Timer flushTimer;
+    private final List<Runnable> flushListeners = new ArrayList<>();
+
+    public MessageListModel(int capacity) {
+        this.lines = new Line[capacity];
+        this.flushTimer = new Timer(FRAME_MILLIS, e -> flush());
+        flushTimer.setRepeats(false);
+    }
+
+    // Safe to call from any thread. The first line queued after a flush arms the timer; the rest of
+    // the frame's lines ride along with it.
+    public void add(Line line) {
+        pending.add(line);
+        if (flushScheduled.compareAndSet(false, true)) SwingUtilities.invokeLater(flushTimer::restart);
+    }
+
+    // Runs on the EDT after each batch, before the view has been laid out again, so the scroll
+    // position it sees is still the one the user left it at.
+    public void addFlushListener(Runnable listener) {
+        flushListeners.add(listener);
+    }
+
+    public void stop() {
+        flushTimer.stop();
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Line getElementAt(int index) {
+        return lines[(head + index) % lines.length];
+    }
+
+    public List<Line> snapshot() {
+        var copy = new ArrayList<Line>(size);
+        for (int i = 0; i < size; i++) copy.add(getElementAt(i));
+        return copy;
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        var batch = new ArrayList<Line>();
+        Line line;
+        while ((line = pending.poll()) != null) batch.add(line);
+        if (batch.isEmpty()) return;
+
+        // Lines that would be evicted within this same batch are never shown
+        var skip = Math.max(0, batch.size() - lines.length);
+        var added = batch.size() - skip;
+
+        var evicted = Math.max(0, size + added - lines.length);
+        if (evicted > 0) {
+            for (int i = 0; i < evicted; i++) lines[(head + i) % lines.length] = null;
+            head = (head + evicted) % lines.length;
+            size -= evicted;
+            fireIntervalRemoved(this, 0, evicted - 1);
+        }
+
+        var first = size;
+        for (int i = skip; i < batch.size(); i++) lines[(head + size++) % lines.length] = batch.get(i);
+        fireIntervalAdded(this, first, size - 1);
+        for (var listener : flushListeners) listener.run();
+    }
+}
@@ -0,0 +1,440 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+// Append-only, segmented on-disk history. Records are [payload length][crc32][seq][time][payload]
+// in files named after the first sequence they hold. Appends are copied into a write buffer and a
+// flusher thread writes and fsyncs whatever has accumulated every FLUSH_MILLIS, so one fsync commits
+// a whole group of messages and the caller never waits on the disk.
+//
+// Next to each segment an .idx file holds a sparse index entry ([seq offset][position][time]) for
+// roughly every INDEX_INTERVAL bytes, which lets replay and time lookups seek close to their target
+// instead of scanning whole segments. A torn record at the end of the newest segment is truncated
+// away when the log is opened.
+public final class MessageLog implements Closeable {
+    public interface Visitor {
+        void visit(long seq, long timeMillis, byte[] data, int length);
+    }
+
+    private static final int HEADER_BYTES = 24;
+    private static final int INDEX_ENTRY_BYTES = 16;
+    private static final int INDEX_INTERVAL = 4096;
+    private static final long FLUSH_MILLIS = 10;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final class Segment {
+        final long baseSeq;
+        final Path logPath;
+        final Path indexPath;
+        final List<long[]> index = new ArrayList<>();
+        FileChannel log;
+        FileChannel indexChannel;
+        long size;
+        long lastIndexed = -INDEX_INTERVAL;
+
+        Segment(Path directory, long baseSeq) {
+            this.baseSeq = baseSeq;
+            var name = String.format(Locale.ROOT, "%020d", baseSeq);
+            this.logPath = directory.resolve(name + LOG_SUFFIX);
+            this.indexPath = directory.resolve(name + INDEX_SUFFIX);
+        }
+
+        void openForAppend() throws IOException {
+            log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            log.position(size);
+            indexChannel.position((long) index.size() * INDEX_ENTRY_BYTES);
+        }
+
+        void close() throws IOException {
+            if (log != null) log.close();
+            if (indexChannel != null) indexChannel.close();
+            log = null;
+            indexChannel = null;
+        }
+
+        // Position of the last index entry at or before seq, or 0.
+        long floorPosition(long seq) {
+            long position = 0;
+            for (var entry : index) {
+                if (entry[0] > seq) break;
+                position = entry[1];
+            }
+            return position;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(INDEX_ENTRY_BYTES * 256);
+    private final CRC32 crc = new CRC32();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final Thread flusher;
+    private volatile boolean open = true;
+    private long tail;
+
+    private MessageLog(Path directory, long segmentBytes, int maxSegments) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.flusher = new Thread(this::flushLoop, "MessageLog-Flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    public static MessageLog open(Path directory, long segmentBytes, int maxSegments) throws IOException {
+        Files.createDirectories(directory);
+        var log = new MessageLog(directory, segmentBytes, maxSegments);
+        log.recover();
+        log.flusher.start();
+        return log;
+    }
+
+    private void recover() throws IOException {
+        try (var files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(LOG_SUFFIX))
+                    .map(name -> name.substring(0, name.length() - LOG_SUFFIX.length()))
+                    .mapToLong(Long::parseLong)
+                    .sorted()
+                    .forEach(base -> segments.add(new Segment(directory, base)));
+        }
+        for (var segment : segments) {
+            segment.size = Files.size(segment.logPath);
+            loadIndex(segment);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(new Segment(directory, 0));
+        } else {
+            recoverTail(segments.get(segments.size() - 1));
+        }
+        var active = segments.get(segments.size() - 1);
+        if (tail == 0) tail = active.baseSeq;
+        active.openForAppend();
+    }
+
+    private void loadIndex(Segment segment) throws IOException {
+        if (!Files.exists(segment.indexPath)) return;
+        var data = ByteBuffer.wrap(Files.readAllBytes(segment.indexPath));
+        while (data.remaining() >= INDEX_ENTRY_BYTES) {
+            var seq = segment.baseSeq + data.getInt();
+            var position = data.getInt() & 0xFFFFFFFFL;
+            var time = data.getLong();
+            if (position >= segment.size) break;
+            segment.index.add(new long[]{seq, position, time});
+            segment.lastIndexed = position;
+        }
+    }
+
+    // Scans forward from the newest index entry, keeps every record whose checksum holds and
+    // truncates the segment after the last one.
+    private void recoverTail(Segment segment) throws IOException {
+        var last = segment.index.isEmpty() ? null : segment.index.get(segment.index.size() - 1);
+        var valid = last == null ? 0 : last[1];
+        var seq = last == null ? segment.baseSeq : last[0];
+        try (var channel = FileChannel.open(segment.logPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var map = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+            map.position((int) valid);
+            long next;
+            while ((next = validRecordEnd(map)) >= 0) {
+                seq = map.getLong(map.position() + 8) + 1;
+                valid = next;
+                map.position((int) next);
+            }
+            if (valid < segment.size) channel.truncate(valid);
+        }
+        segment.size = valid;
+        tail = seq;
+
+        var cut = valid;
+        if (segment.index.removeIf(entry -> entry[1] >= cut)) {
+            segment.lastIndexed = segment.index.isEmpty() ? -INDEX_INTERVAL : segment.index.get(segment.index.size() - 1)[1];
+        }
+        Files.write(segment.indexPath, indexBytes(segment));
+    }
+
+    private byte[] indexBytes(Segment segment) {
+        var out = ByteBuffer.allocate(segment.index.size() * INDEX_ENTRY_BYTES);
+        for (var entry : segment.index) {
+            out.putInt((int) (entry[0] - segment.baseSeq)).putInt((int) entry[1]).putLong(entry[2]);
+        }
+        return out.array();
+    }
+
+    // Returns the offset just past the record at the buffer's position, or -1 if it is truncated or
+    // fails its checksum. Does not move the buffer.
+    private long validRecordEnd(MappedByteBuffer map) {
+        var position = map.position();
+        if (map.limit() - position < HEADER_BYTES) return -1;
+        var length = map.getInt(position);
+        if (length < 0 || length > map.limit() - position - HEADER_BYTES) return -1;
+
+        var checksum = new CRC32();
+        var record = map.duplicate();
+        record.position(position + 8).limit(position + HEADER_BYTES + length);
+        checksum.update(record);
+        if ((int) checksum.getValue() != map.getInt(position + 4)) return -1;
+        return position + HEADER_BYTES + length;
+    }
+
+    public synchronized long append(byte[] data, int length, long timeMillis) throws IOException {
+        if (!open) throw new IOException("Message log is closed");
+        var size = HEADER_BYTES + length;
+        if (size > writeBuffer.capacity()) throw new IOException("Record too large: " + length + " bytes");
+
+        var active = segments.get(segments.size() - 1);
+        if (active.size > 0 && active.size + size > segmentBytes) {
+            roll();
+            active = segments.get(segments.size() - 1);
+        }
+        if (writeBuffer.remaining() < size) writePending();
+
+        var seq = tail++;
+        if (active.size - active.lastIndexed >= INDEX_INTERVAL) {
+            active.index.add(new long[]{seq, active.size, timeMillis});
+            active.lastIndexed = active.size;
+            if (indexBuffer.remaining() < INDEX_ENTRY_BYTES) writePending();
+            indexBuffer.putInt((int) (seq - active.baseSeq)).putInt((int) active.size).putLong(timeMillis);
+        }
+
+        crc.reset();
+        var start = writeBuffer.position();
+        writeBuffer.putInt(length).putInt(0).putLong(seq).putLong(timeMillis).put(data, 0, length);
+        var record = writeBuffer.duplicate();
+        record.position(start + 8).limit(writeBuffer.position());
+        crc.update(record);
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+
+        active.size += size;
+        dirty.set(true);
+        return seq;
+    }
+
+    public synchronized long tail() {
+        return tail;
+    }
+
+    public synchronized long oldest() {
+        return segments.get(0).baseSeq;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    // Delivers every record from fromSeq onwards, in order. Segments are mapped read-only and the scan
+    // starts from the nearest index entry, so warming the newest entries only touches the tail.
+    public void replay(long fromSeq, Visitor visitor) throws IOException {
+        List<Segment> snapshot;
+        long[] starts;
+        long[] ends;
+        synchronized (this) {
+            writePending();
+            snapshot = new ArrayList<>(segments);
+            starts = new long[snapshot.size()];
+            ends = new long[snapshot.size()];
+            for (int i = 0; i < snapshot.size(); i++) {
+                starts[i] = snapshot.get(i).floorPosition(fromSeq);
+                ends[i] = snapshot.get(i).size;
+            }
+        }
+
+        var buffer = new byte[0];
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (i + 1 < snapshot.size() && snapshot.get(i + 1).baseSeq <= fromSeq) continue;
+
+            var map = map(snapshot.get(i), ends[i]);
+            map.position((int) starts[i]);
+            while (map.remaining() >= HEADER_BYTES) {
+                var length = map.getInt();
+                map.getInt();
+                var seq = map.getLong();
+                var time = map.getLong();
+                if (length < 0 || length > map.remaining()) break;
+                if (seq < fromSeq) {
+                    map.position(map.position() + length);
+                    continue;
+                }
+                if (buffer.length < length) buffer = new byte[Math.max(length, 256)];
+                map.get(buffer, 0, length);
+                visitor.visit(seq, time, buffer, length);
+            }
+        }
+    }
+
+    // Visits the first count records of seqs, in the order given, skipping any that have been
+    // retired. Each lookup seeks through the sparse index, and consecutive records from the same
+    // segment share one mapping.
+    public void read(long[] seqs, int count, Visitor visitor) throws IOException {
+        var owners = new Segment[count];
+        var starts = new long[count];
+        var ends = new long[count];
+        synchronized (this) {
+            writePending();
+            for (int i = 0; i < count; i++) {
+                var segment = segmentFor(seqs[i]);
+                if (segment == null) continue;
+                owners[i] = segment;
+                starts[i] = segment.floorPosition(seqs[i]);
+                ends[i] = segment.size;
+            }
+        }
+
+        Segment mapped = null;
+        MappedByteBuffer map = null;
+        var buffer = new byte[0];
+        for (int i = 0; i < count; i++) {
+            if (owners[i] == null) continue;
+            if (owners[i] != mapped || map.limit() < ends[i]) {
+                map = map(owners[i], ends[i]);
+                mapped = owners[i];
+            }
+
+            map.position((int) starts[i]);
+            while (map.remaining() >= HEADER_BYTES) {
+                var length = map.getInt();
+                map.getInt();
+                var seq = map.getLong();
+                var time = map.getLong();
+                if (length < 0 || length > map.remaining() || seq > seqs[i]) break;
+                if (seq < seqs[i]) {
+                    map.position(map.position() + length);
+                    continue;
+                }
+                if (buffer.length < length) buffer = new byte[Math.max(length, 256)];
+                map.get(buffer, 0, length);
+                visitor.visit(seq, time, buffer, length);
+                break;
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(Segment segment, long size) throws IOException {
+        try (var channel = FileChannel.open(segment.logPath, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, channel.size()));
+        }
+    }
+
+    private Segment segmentFor(long seq) {
+        if (seq >= tail) return null;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).baseSeq <= seq) return segments.get(i);
+        }
+        return null;
+    }
+
+    // First sequence written at or after timeMillis, found through the sparse index and then a short
+    // scan. Returns tail() if nothing that recent exists.
+    public long sequenceAt(long timeMillis) throws IOException {
+        long from;
+        synchronized (this) {
+            from = segments.get(0).baseSeq;
+            for (var segment : segments) {
+                for (var entry : segment.index) {
+                    if (entry[2] >= timeMillis) break;
+                    from = entry[0];
+                }
+            }
+        }
+
+        var found = new long[]{-1};
+        replay(from, (seq, time, data, length) -> {
+            if (found[0] < 0 && time >= timeMillis) found[0] = seq;
+        });
+        return found[0] < 0 ? tail() : found[0];
+    }
+
+    private void roll() throws IOException {
+        writePending();
+        var active = segments.get(segments.size() - 1);
+        active.log.force(true);
+        active.indexChannel.force(true);
+        active.close();
+
+        var next = new Segment(directory, tail);
+        next.openForAppend();
+        segments.add(next);
+
+        while (segments.size() > maxSegments) {
+            var expired = segments.remove(0);
+            Files.deleteIfExists(expired.logPath);
+            Files.deleteIfExists(expired.indexPath);
+        }
+    }
+
+    private void writePending() throws IOException {
+        var active = segments.get(segments.size() - 1);
+        if (active.log == null) return;
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) active.log.write(writeBuffer);
+        writeBuffer.clear();
+        indexBuffer.flip();
+        while (indexBuffer.hasRemaining()) active.indexChannel.write(indexBuffer);
+        indexBuffer.clear();
+    }
+
+    private void flushLoop() {
+        while (open) {
+            try {
+                Thread.sleep(FLUSH_MILLIS);
+                flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Failed to flush message log: " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes everything appended so far and fsyncs it. The fsync runs outside the lock so appends
+    // keep filling the buffer for the next group while the disk catches up.
+    public void flush() throws IOException {
+        if (!dirty.getAndSet(false)) return;
+        FileChannel log;
+        FileChannel index;
+        synchronized (this) {
+            writePending();
+            var active = segments.get(segments.size() - 1);
+            log = active.log;
+            index = active.indexChannel;
+        }
+        if (log != null && log.isOpen()) log.force(false);
+        if (index != null && index.isOpen()) index.force(false);
+    }
+
+    // Waits for the flusher to notice rather than interrupting it: an interrupt that lands during
+    // its write or fsync closes the channel under the final flush.
+    @Override
+    public void close() throws IOException {
+        open = false;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            writePending();
+            var active = segments.get(segments.size() - 1);
+            if (active.log != null) {
+                active.log.force(true);
+                active.indexChannel.force(true);
+            }
+            active.close();
+        }
+    }
+}
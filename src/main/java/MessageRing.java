@@ -0,0 +1,211 @@
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+
+// Fixed-capacity history of text-encoded messages. Each entry is stored in a circular byte log
+// already followed by the "||" separator used in WELCOME, so a snapshot of the newest entries is
+// one or two array copies. Appends are serialized; readers never lock. Like a seqlock, an append
+// first publishes how far it is about to write, then overwrites the oldest bytes and slot, then
+// publishes the new tail. A reader copies first and checks the reservation afterwards, retrying if
+// the writer may have overwritten anything it copied.
+public final class MessageRing {
+    private static final byte[] SEPARATOR = "||".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int capacity;
+    private final int maxEntryBytes;
+    private final byte[] log;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] times;
+    private volatile long tail;
+    // The tail and byte log end the current append will leave behind; ahead of tail while it runs.
+    private volatile long reservedSeq;
+    private volatile long reservedEnd;
+
+    public static final class Range {
+        public final long firstSeq;
+        public final int count;
+        public final byte[] data;
+
+        Range(long firstSeq, int count, byte[] data) {
+            this.firstSeq = firstSeq;
+            this.count = count;
+            this.data = data;
+        }
+    }
+
+    public MessageRing(int capacity, int logBytes) {
+        this(capacity, logBytes, MessageView.MAX_PACKET_SIZE);
+    }
+
+    // The byte log always holds two of the largest entries, so an append never overwrites itself.
+    // A ring for small entries can say so and keep its log close to logBytes.
+    public MessageRing(int capacity, int logBytes, int maxEntryBytes) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        this.maxEntryBytes = maxEntryBytes;
+        this.log = new byte[Math.max(logBytes, 2 * (maxEntryBytes + SEPARATOR.length))];
+        this.starts = new long[capacity];
+        this.ends = new long[capacity];
+        this.times = new long[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public int logBytes() {
+        return log.length;
+    }
+
+    public int size() {
+        return (int) Math.min(tail, capacity);
+    }
+
+    public long tail() {
+        return tail;
+    }
+
+    public long oldest() {
+        while (true) {
+            var t = tail;
+            if (t == 0) return 0;
+            var oldest = firstStartingAt(t, ends[slot(t - 1)] - log.length);
+            if (intact(oldest, starts[slot(oldest)])) return oldest;
+        }
+    }
+
+    public long append(Message message) {
+        var data = message.toNetworkString().getBytes(StandardCharsets.UTF_8);
+        return append(data, data.length);
+    }
+
+    public long append(byte[] data, int length) {
+        return append(data, length, System.currentTimeMillis());
+    }
+
+    public synchronized long append(byte[] data, int length, long timeMillis) {
+        if (length > maxEntryBytes) throw new IllegalArgumentException("Entry of " + length + " bytes is over the limit of " + maxEntryBytes);
+        var seq = tail;
+        var start = seq == 0 ? 0 : ends[slot(seq - 1)];
+        reservedSeq = seq + 1;
+        reservedEnd = start + length + SEPARATOR.length;
+        // Readers must be able to see the reservation before any byte or slot it covers changes
+        VarHandle.storeStoreFence();
+        write(start, data, length);
+        write(start + length, SEPARATOR, SEPARATOR.length);
+
+        starts[slot(seq)] = start;
+        ends[slot(seq)] = start + length + SEPARATOR.length;
+        times[slot(seq)] = timeMillis;
+        tail = seq + 1;
+        return seq;
+    }
+
+    public byte[] snapshot(int maxBytes) {
+        while (true) {
+            var t = tail;
+            if (t == 0) return EMPTY;
+
+            var end = ends[slot(t - 1)];
+            var lo = firstStartingAt(t, end - Math.min(maxBytes, log.length));
+            if (lo == t) return EMPTY;
+
+            var start = starts[slot(lo)];
+            var length = end - start;
+            if (length < 0 || length > log.length) continue;
+
+            var out = new byte[(int) length];
+            read(start, out);
+
+            if (intact(lo, start)) return out;
+        }
+    }
+
+    public Range read(long fromSeq, int maxEntries, int maxBytes) {
+        while (true) {
+            var t = tail;
+            var first = t == 0 ? 0 : Math.max(fromSeq, firstStartingAt(t, ends[slot(t - 1)] - log.length));
+            if (first >= t || maxEntries <= 0) return new Range(Math.min(first, t), 0, EMPTY);
+
+            var start = starts[slot(first)];
+            var end = start;
+            var last = first;
+            while (last < t && last - first < maxEntries) {
+                var entryEnd = ends[slot(last)];
+                if (last > first && entryEnd - start > maxBytes) break;
+                end = entryEnd;
+                last++;
+            }
+
+            var length = end - start;
+            if (length < 0 || length > log.length) continue;
+
+            var out = new byte[(int) length];
+            read(start, out);
+
+            if (intact(first, start)) return new Range(first, (int) (last - first), out);
+        }
+    }
+
+    public long sequenceAt(long timeMillis) {
+        while (true) {
+            var t = tail;
+            long lo = Math.max(0, t - capacity);
+            long hi = t;
+            while (lo < hi) {
+                var mid = (lo + hi) >>> 1;
+                if (times[slot(mid)] >= timeMillis) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            if (intact(lo, Long.MAX_VALUE)) return lo;
+        }
+    }
+
+    // Whether entry seq and everything after it, starting at byte start, was untouched by appends
+    // while the caller read it. Called after the copy; the fence keeps the copy's loads ahead of
+    // the reservation's.
+    private boolean intact(long seq, long start) {
+        VarHandle.loadLoadFence();
+        return seq >= reservedSeq - capacity && start >= reservedEnd - log.length;
+    }
+
+    private long firstStartingAt(long t, long floor) {
+        long lo = Math.max(0, t - capacity);
+        long hi = t;
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (starts[slot(mid)] >= floor) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    private void write(long position, byte[] data, int length) {
+        var offset = (int) (position % log.length);
+        var first = Math.min(length, log.length - offset);
+        System.arraycopy(data, 0, log, offset, first);
+        System.arraycopy(data, first, log, 0, length - first);
+    }
+
+    private void read(long position, byte[] out) {
+        var offset = (int) (position % log.length);
+        var first = Math.min(out.length, log.length - offset);
+        System.arraycopy(log, offset, out, 0, first);
+        System.arraycopy(log, 0, out, first, out.length - first);
+    }
+}
@@ -0,0 +1,219 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+// Reusable, mutable view over a received packet. Nothing is copied or decoded until a caller asks
+// for it, so one instance per receive thread keeps the hot path free of per-packet garbage.
+public final class MessageView {
+    public static final int MAX_PACKET_SIZE = 65507;
+    // Largest encoded message taken off the wire or re-encoded for broadcast. The rest of a datagram
+    // is left for the reliability, compression and federation headers that can wrap a message.
+    public static final int MAX_MESSAGE_SIZE = MAX_PACKET_SIZE - 64;
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+
+    static {
+        for (var type : TYPES) TYPE_NAMES[type.ordinal()] = type.name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final Utf8Slice sender = new Utf8Slice();
+    private final Utf8Slice content = new Utf8Slice();
+    private final ByteBuffer textOut = ByteBuffer.allocate(MAX_PACKET_SIZE);
+    private final ByteBuffer binaryOut = ByteBuffer.allocate(MAX_PACKET_SIZE);
+    private final byte[] digits = new byte[20];
+    private boolean binary;
+    private boolean hasSender;
+    private boolean malformed;
+    private Message.Type type;
+    private long timestamp;
+
+    public MessageView wrap(ByteBuffer packet) throws ProtocolException {
+        binary = Message.isBinary(packet);
+        malformed = false;
+        if (binary) {
+            parseBinary(packet);
+        } else {
+            parseText(packet);
+        }
+        return this;
+    }
+
+    private void parseBinary(ByteBuffer packet) throws ProtocolException {
+        int start = packet.position();
+        try {
+            if (packet.remaining() < 3) throw new ProtocolException("Truncated binary message");
+            packet.get();
+            var version = packet.get();
+            if (version != Message.BINARY_VERSION) throw new ProtocolException("Unsupported binary version " + version);
+
+            var ordinal = packet.get() & 0xFF;
+            if (ordinal >= TYPES.length) throw new ProtocolException("Unknown message type " + ordinal);
+            type = TYPES[ordinal];
+            timestamp = Codec.readVarLong(packet);
+
+            var senderLength = Codec.readLength(packet);
+            sender.set(packet, packet.position(), senderLength);
+            packet.position(packet.position() + senderLength);
+            hasSender = true;
+
+            var contentLength = Codec.readLength(packet);
+            content.set(packet, packet.position(), contentLength);
+        } finally {
+            packet.position(start);
+        }
+    }
+
+    private void parseText(ByteBuffer packet) {
+        int start = packet.position();
+        int end = packet.limit();
+        int first = indexOf(packet, start, end);
+        int second = first < 0 ? -1 : indexOf(packet, first + 1, end);
+        int third = second < 0 ? -1 : indexOf(packet, second + 1, end);
+
+        type = third < 0 ? null : matchType(packet, start, first);
+        if (type == null || !parseTimestamp(packet, first + 1, second)) {
+            type = Message.Type.CHAT;
+            timestamp = System.currentTimeMillis();
+            hasSender = false;
+            malformed = true;
+            content.set(packet, start, end - start);
+            return;
+        }
+
+        hasSender = true;
+        sender.set(packet, second + 1, third - second - 1);
+        content.set(packet, third + 1, end - third - 1);
+    }
+
+    private static int indexOf(ByteBuffer packet, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (packet.get(i) == ':') return i;
+        }
+        return -1;
+    }
+
+    private static Message.Type matchType(ByteBuffer packet, int from, int to) {
+        outer:
+        for (int t = 0; t < TYPE_NAMES.length; t++) {
+            var name = TYPE_NAMES[t];
+            if (name.length != to - from) continue;
+            for (int i = 0; i < name.length; i++) {
+                if (packet.get(from + i) != name[i]) continue outer;
+            }
+            return TYPES[t];
+        }
+        return null;
+    }
+
+    private boolean parseTimestamp(ByteBuffer packet, int from, int to) {
+        boolean negative = from < to && packet.get(from) == '-';
+        if (negative || (from < to && packet.get(from) == '+')) from++;
+        if (from >= to) return false;
+
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = packet.get(i) - '0';
+            if (digit < 0 || digit > 9) return false;
+            if (value > (Long.MAX_VALUE - digit) / 10) return false;
+            value = value * 10 + digit;
+        }
+        timestamp = negative ? -value : value;
+        return true;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // True when a text packet did not parse and was taken as a plain CHAT with the whole packet as
+    // content, the same fallback fromNetworkString applies.
+    public boolean isMalformed() {
+        return malformed;
+    }
+
+    public Message.Type getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean hasSender() {
+        return hasSender;
+    }
+
+    public CharSequence getSender() {
+        return hasSender ? sender : "";
+    }
+
+    public CharSequence getContent() {
+        return content;
+    }
+
+    public Message toMessage(String defaultSender) {
+        var resolvedSender = hasSender ? sender.toString() : defaultSender;
+        return new Message(content.toString(), resolvedSender, Instant.ofEpochMilli(timestamp), type);
+    }
+
+    // Whether encode() under this sender stays within MAX_MESSAGE_SIZE in both formats. The sender
+    // may be longer than the one the message arrived with, so check before re-encoding.
+    public boolean fits(CharSequence senderOverride) {
+        var senderBytes = Codec.utf8Length(senderOverride);
+        var contentBytes = content.byteLength();
+        var text = TYPE_NAMES[type.ordinal()].length + decimalSize(timestamp) + senderBytes + contentBytes + 3;
+        var binary = 3 + Codec.varLongSize(timestamp) + Codec.varLongSize(senderBytes) + senderBytes
+                + Codec.varLongSize(contentBytes) + contentBytes;
+        return Math.max(text, binary) <= MAX_MESSAGE_SIZE;
+    }
+
+    // Re-encodes this message under a different sender into a buffer owned by the view. The content
+    // bytes are copied verbatim, so the result is only valid until the next call for the same format.
+    public ByteBuffer encode(boolean binary, CharSequence senderOverride) {
+        if (binary) {
+            binaryOut.clear();
+            binaryOut.put(Message.BINARY_MAGIC);
+            binaryOut.put(Message.BINARY_VERSION);
+            binaryOut.put((byte) type.ordinal());
+            Codec.writeVarLong(binaryOut, timestamp);
+            Codec.writeString(binaryOut, senderOverride);
+            Codec.writeVarLong(binaryOut, content.byteLength());
+            content.copyBytesTo(binaryOut);
+            return binaryOut.flip();
+        }
+
+        textOut.clear();
+        textOut.put(TYPE_NAMES[type.ordinal()]).put((byte) ':');
+        writeDecimal(textOut, timestamp);
+        textOut.put((byte) ':');
+        Codec.writeUtf8(textOut, senderOverride);
+        textOut.put((byte) ':');
+        content.copyBytesTo(textOut);
+        return textOut.flip();
+    }
+
+    private static int decimalSize(long value) {
+        if (value == Long.MIN_VALUE) return 20;
+        var size = value < 0 ? 2 : 1;
+        for (var rest = Math.abs(value); rest >= 10; rest /= 10) size++;
+        return size;
+    }
+
+    private void writeDecimal(ByteBuffer out, long value) {
+        if (value < 0) {
+            out.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                out.put("9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) out.put(digits[--count]);
+    }
+}
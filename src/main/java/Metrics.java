@@ -0,0 +1,208 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Registry of counters, gauges and latency histograms. Recording is a LongAdder increment or one
+// striped array increment; everything that walks or formats the registry runs only when JMX or the
+// plain-text endpoint asks for it. Text output follows the Prometheus exposition format.
+public final class Metrics implements MetricsMXBean {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] QUANTILE_KEYS = {"p50", "p99", "p999"};
+
+    // Log-linear buckets in the style of HdrHistogram: values below 16 get their own bucket, larger
+    // ones get 16 sub-buckets per power of two, which bounds the relative error at about 6%.
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+        private static final int STRIPES = Integer.highestOneBit(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8)) * 2 - 1);
+
+        private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            var stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            counts.incrementAndGet(stripe * BUCKETS + bucket(nanos));
+            sum.add(nanos);
+        }
+
+        public long[] snapshot() {
+            var merged = new long[BUCKETS];
+            for (int i = 0; i < counts.length(); i++) merged[i % BUCKETS] += counts.get(i);
+            return merged;
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        static long count(long[] buckets) {
+            long total = 0;
+            for (var n : buckets) total += n;
+            return total;
+        }
+
+        static long quantile(long[] buckets, double q) {
+            var total = count(buckets);
+            if (total == 0) return 0;
+            var rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return upperBound(i);
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            var exponent = 63 - Long.numberOfLeadingZeros(value);
+            var sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            var exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            var sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+    private HttpServer endpoint;
+    private boolean closed;
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    public void remove(String name) {
+        counters.remove(name);
+        gauges.remove(name);
+        histograms.remove(name);
+    }
+
+    public synchronized void register(String name) {
+        if (closed) return;
+        try {
+            objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            System.err.println("Failed to register metrics MBean " + name + ": " + e.getMessage());
+        }
+    }
+
+    // Serves the text format on http://127.0.0.1:<port>/metrics. Loopback only, since the endpoint
+    // has no authentication.
+    public synchronized void serve(int port) throws IOException {
+        endpoint = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        endpoint.createContext("/metrics", exchange -> {
+            var body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (var out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        endpoint.start();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (endpoint != null) {
+            endpoint.stop(0);
+            endpoint = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        var values = new TreeMap<String, Long>();
+        counters.forEach((name, adder) -> values.put(name, adder.sum()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        var values = new TreeMap<String, Long>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyNanos() {
+        var values = new TreeMap<String, Long>();
+        histograms.forEach((name, histogram) -> {
+            var buckets = histogram.snapshot();
+            values.put(name + ".count", Histogram.count(buckets));
+            for (int i = 0; i < QUANTILES.length; i++) values.put(name + "." + QUANTILE_KEYS[i], Histogram.quantile(buckets, QUANTILES[i]));
+        });
+        return values;
+    }
+
+    @Override
+    public String scrape() {
+        var out = new StringBuilder();
+        var typed = new HashSet<String>();
+        new TreeMap<>(counters).forEach((name, adder) -> line(out, typed, name, "counter", adder.sum()));
+        new TreeMap<>(gauges).forEach((name, gauge) -> line(out, typed, name, "gauge", gauge.getAsLong()));
+        new TreeMap<>(histograms).forEach((name, histogram) -> {
+            var buckets = histogram.snapshot();
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (var q : QUANTILES) {
+                out.append(name).append("{quantile=\"").append(q).append("\"} ")
+                        .append(seconds(Histogram.quantile(buckets, q))).append('\n');
+            }
+            out.append(name).append("_sum ").append(seconds(histogram.sum())).append('\n');
+            out.append(name).append("_count ").append(Histogram.count(buckets)).append('\n');
+        });
+        return out.toString();
+    }
+
+    // Labelled series share one TYPE line, e.g. chat_send_errors_total{client="..."}.
+    private static void line(StringBuilder out, Set<String> typed, String name, String type, long value) {
+        var brace = name.indexOf('{');
+        var family = brace < 0 ? name : name.substring(0, brace);
+        if (typed.add(family)) out.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
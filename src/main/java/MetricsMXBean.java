@@ -0,0 +1,12 @@
+import java.util.Map;
+
+// JMX view of a server's Metrics, registered as chat:type=ChatServer,port=<port>.
+public interface MetricsMXBean {
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getGauges();
+
+    Map<String, Long> getLatencyNanos();
+
+    String scrape();
+}
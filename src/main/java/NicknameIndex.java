@@ -0,0 +1,50 @@
+import java.net.SocketAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Two-way map between connected addresses and their nicknames, so both "who is this packet from"
+// and "where does this DM go" are one hash lookup. Nicknames are unique ignoring case. Claims and
+// releases are serialized to keep both directions in step; lookups never lock.
+public final class NicknameIndex {
+    private final Map<SocketAddress, String> byAddress = new ConcurrentHashMap<>();
+    private final Map<String, SocketAddress> byName = new ConcurrentHashMap<>();
+
+    private static String key(String nickname) {
+        return nickname.toLowerCase(Locale.ROOT);
+    }
+
+    // Gives nickname to address, releasing any nickname the address held before. Fails, changing
+    // nothing, if another address already holds the nickname.
+    public synchronized boolean claim(SocketAddress address, String nickname) {
+        var holder = byName.putIfAbsent(key(nickname), address);
+        if (holder != null && !holder.equals(address)) return false;
+
+        var previous = byAddress.put(address, nickname);
+        if (previous != null && !key(previous).equals(key(nickname))) byName.remove(key(previous), address);
+        return true;
+    }
+
+    public synchronized String release(SocketAddress address) {
+        var nickname = byAddress.remove(address);
+        if (nickname != null) byName.remove(key(nickname), address);
+        return nickname;
+    }
+
+    public String nicknameOf(SocketAddress address) {
+        return byAddress.get(address);
+    }
+
+    public SocketAddress addressOf(String nickname) {
+        return byName.get(key(nickname));
+    }
+
+    public boolean isTaken(String nickname, SocketAddress address) {
+        var holder = byName.get(key(nickname));
+        return holder != null && !holder.equals(address);
+    }
+
+    public Map<SocketAddress, String> entries() {
+        return byAddress;
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+public class NioServer extends ChatServer {
+    private static final int SEND_BUFFER_SIZE = 2048;
+    private static final int SEND_POOL_CAPACITY = 64;
+
+    private final DatagramChannel channel;
+    private final Selector readSelector;
+    private final Selector writeSelector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+    private final MessageView view = new MessageView();
+    private final BufferPool sendPool = new BufferPool(SEND_BUFFER_SIZE, SEND_POOL_CAPACITY);
+
+    public NioServer(int port) throws IOException {
+        super(port, "NioServer");
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(bindAddress(), port));
+        channel.configureBlocking(false);
+
+        readSelector = Selector.open();
+        writeSelector = Selector.open();
+        channel.register(readSelector, SelectionKey.OP_READ);
+        channel.register(writeSelector, SelectionKey.OP_WRITE);
+    }
+
+    @Override
+    public void run() {
+        System.out.println("NIO server started on port " + port);
+        System.out.println("Server IP address: " + getServerIpAddress());
+
+        while (running) {
+            try {
+                readSelector.select();
+                readSelector.selectedKeys().clear();
+                receivePackets();
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (!running) break;
+                System.err.println("Error processing packet: " + e.getMessage());
+            }
+        }
+        close();
+    }
+
+    private void receivePackets() throws IOException {
+        InetSocketAddress clientAddr;
+        while ((clientAddr = (InetSocketAddress) channel.receive(receiveBuffer)) != null) {
+            receiveBuffer.flip();
+            try {
+                onPacket(clientAddr, receiveBuffer, view);
+            } catch (IOException e) {
+                System.err.println("Error processing packet: " + e.getMessage());
+            } catch (RuntimeException e) {
+                packetFailed(clientAddr, e);
+            } finally {
+                receiveBuffer.clear();
+            }
+        }
+    }
+
+    // Called from the sender threads, or inline when send queues are off. Each send copies into a
+    // pooled direct buffer, which the channel writes as it is; a heap buffer would be copied into a
+    // temporary direct one on every call. Larger packets are rare and go out as they are.
+    @Override
+    protected void sendPacket(byte[] data, int length, InetSocketAddress address) throws IOException {
+        if (length > sendPool.getBufferSize()) {
+            sendFully(ByteBuffer.wrap(data, 0, length), address);
+            return;
+        }
+        var buffer = sendPool.acquire();
+        try {
+            buffer.put(data, 0, length).flip();
+            sendFully(buffer, address);
+        } finally {
+            sendPool.release(buffer);
+        }
+    }
+
+    // A full socket buffer makes send() return 0, so wait for the channel to become writable rather
+    // than spin.
+    private void sendFully(ByteBuffer buffer, InetSocketAddress address) throws IOException {
+        try {
+            while (channel.send(buffer, address) == 0) {
+                synchronized (writeSelector) {
+                    writeSelector.select();
+                    writeSelector.selectedKeys().clear();
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            channel.close();
+            readSelector.close();
+            writeSelector.close();
+        } catch (IOException ignored) {
+        }
+        releaseResources();
+    }
+}
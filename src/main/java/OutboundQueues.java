@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+// Bounded per-client send queues. The receive path only copies a packet into its recipients' queues;
+// a small pool of sender threads makes the system calls. Like a Sessions mailbox, each queue is
+// drained by at most one sender at a time, so a client's packets keep their order, and a sender hands
+// the queue back after BATCH packets, so a client with a deep backlog takes turns with everyone else
+// instead of holding up the room. When a queue is full the policy decides what gives.
+//
+// Configured through chat.server.sendQueue.capacity (packets per client, 0 sends inline on the
+// calling thread), chat.server.sendQueue.policy and chat.server.sendQueue.senders.
+public final class OutboundQueues {
+    public static final String PROPERTY_PREFIX = "chat.server.sendQueue.";
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int BATCH = 16;
+    private static final long ACK_KEY = 1;
+
+    public enum Policy {
+        // Discards the oldest queued packet. Reliable traffic is retransmitted, the rest is lost.
+        DROP_OLDEST,
+        // Folds a packet into a queued one it supersedes, a later ACK or another transmission of the
+        // same reliable frame, and only drops the oldest packet when nothing could be folded.
+        COALESCE,
+        // Discards the queue and reports the client through pollOverflowed() to be disconnected.
+        DISCONNECT,
+    }
+
+    private final class Outbox implements Runnable {
+        private final InetSocketAddress address;
+        private byte[][] packets = new byte[INITIAL_CAPACITY][];
+        private int[] lengths = new int[INITIAL_CAPACITY];
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private int head;
+        private int size;
+        private boolean scheduled;
+        private boolean closed;
+
+        Outbox(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void offer(byte[] packet, int length) {
+            var key = policy == Policy.COALESCE ? keyOf(packet, length) : 0;
+            synchronized (this) {
+                if (closed) return;
+                if (key != 0 && replace(key, packet, length)) return;
+                if (size == capacity) {
+                    if (policy == Policy.DISCONNECT) {
+                        overflow();
+                        return;
+                    }
+                    packets[head] = null;
+                    head = (head + 1) & (packets.length - 1);
+                    size--;
+                    queued.decrementAndGet();
+                    dropped.increment();
+                } else if (size == packets.length) {
+                    grow();
+                }
+
+                var tail = (head + size) & (packets.length - 1);
+                packets[tail] = packet;
+                lengths[tail] = length;
+                keys[tail] = key;
+                size++;
+                queued.incrementAndGet();
+                if (scheduled) return;
+                scheduled = true;
+            }
+            execute(this);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void close() {
+            closed = true;
+            clear();
+        }
+
+        @Override
+        public void run() {
+            var batch = new byte[BATCH][];
+            var batchLengths = new int[BATCH];
+            int count;
+            synchronized (this) {
+                count = Math.min(size, BATCH);
+                for (int i = 0; i < count; i++) {
+                    batch[i] = packets[head];
+                    batchLengths[i] = lengths[head];
+                    packets[head] = null;
+                    head = (head + 1) & (packets.length - 1);
+                }
+                size -= count;
+            }
+            queued.addAndGet(-count);
+
+            for (int i = 0; i < count; i++) {
+                try {
+                    transport.send(batch[i], batchLengths[i], address);
+                } catch (IOException e) {
+                    failures.accept(address, e);
+                }
+            }
+
+            synchronized (this) {
+                if (size == 0 || closed) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            execute(this);
+        }
+
+        private boolean replace(long key, byte[] packet, int length) {
+            var mask = packets.length - 1;
+            for (int i = 0; i < size; i++) {
+                var index = (head + i) & mask;
+                if (keys[index] != key) continue;
+                packets[index] = packet;
+                lengths[index] = length;
+                coalesced.increment();
+                return true;
+            }
+            return false;
+        }
+
+        private void overflow() {
+            closed = true;
+            clear();
+            overflowed.add(address);
+        }
+
+        private void clear() {
+            queued.addAndGet(-size);
+            Arrays.fill(packets, null);
+            head = 0;
+            size = 0;
+        }
+
+        private void grow() {
+            var capacity = packets.length * 2;
+            var grown = new byte[capacity][];
+            var grownLengths = new int[capacity];
+            var grownKeys = new long[capacity];
+            for (int i = 0; i < size; i++) {
+                var index = (head + i) & (packets.length - 1);
+                grown[i] = packets[index];
+                grownLengths[i] = lengths[index];
+                grownKeys[i] = keys[index];
+            }
+            packets = grown;
+            lengths = grownLengths;
+            keys = grownKeys;
+            head = 0;
+        }
+    }
+
+    private final ReliableEndpoint.Transport transport;
+    private final BiConsumer<InetSocketAddress, IOException> failures;
+    private final int capacity;
+    private final Policy policy;
+    private final ExecutorService senders;
+    private final Map<SocketAddress, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final Queue<InetSocketAddress> overflowed = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queued = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    // Capacity is rounded up to a power of two. Queues start small and grow towards it only while a
+    // client is actually behind.
+    public OutboundQueues(ReliableEndpoint.Transport transport, BiConsumer<InetSocketAddress, IOException> failures,
+                          int capacity, Policy policy, int senderCount, String name) {
+        this.transport = transport;
+        this.failures = failures;
+        this.capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        this.policy = policy;
+        var threads = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(Math.max(1, senderCount), r -> {
+            var thread = new Thread(r, name + "-Sender-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Returns null when queueing is turned off.
+    public static OutboundQueues fromProperties(ReliableEndpoint.Transport transport, BiConsumer<InetSocketAddress, IOException> failures, String name) {
+        var capacity = Integer.getInteger(PROPERTY_PREFIX + "capacity", DEFAULT_CAPACITY);
+        if (capacity <= 0) return null;
+
+        var policy = Policy.valueOf(System.getProperty(PROPERTY_PREFIX + "policy", Policy.DROP_OLDEST.name()).trim().toUpperCase(Locale.ROOT));
+        var senderCount = Integer.getInteger(PROPERTY_PREFIX + "senders", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        return new OutboundQueues(transport, failures, capacity, policy, senderCount, name);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void open(InetSocketAddress address) {
+        outboxes.computeIfAbsent(address, a -> new Outbox(address));
+    }
+
+    public void close(SocketAddress address) {
+        var outbox = outboxes.remove(address);
+        if (outbox != null) outbox.close();
+    }
+
+    // Queues a copy of the packet, so callers may reuse their buffer. Returns false for an address
+    // without a queue, which the caller then sends to directly.
+    public boolean send(byte[] data, int length, InetSocketAddress address) {
+        var outbox = outboxes.get(address);
+        if (outbox == null) return false;
+        outbox.offer(Arrays.copyOf(data, length), length);
+        return true;
+    }
+
+    // Every recipient's queue shares one copy of the packet.
+    public void fanOut(byte[] data, int length, Destinations targets, SocketAddress exclude) {
+        var packet = Arrays.copyOf(data, length);
+        for (int i = 0; i < targets.size(); i++) {
+            var address = targets.addresses[i];
+            if (address.equals(exclude)) continue;
+            var outbox = outboxes.get(address);
+            if (outbox != null) {
+                outbox.offer(packet, length);
+                continue;
+            }
+            try {
+                transport.send(packet, length, address);
+            } catch (IOException e) {
+                failures.accept(address, e);
+            }
+        }
+    }
+
+    // Next client whose queue overflowed under the DISCONNECT policy, or null.
+    public InetSocketAddress pollOverflowed() {
+        return overflowed.poll();
+    }
+
+    public long depth() {
+        return queued.get();
+    }
+
+    public int depth(SocketAddress address) {
+        var outbox = outboxes.get(address);
+        return outbox == null ? 0 : outbox.size();
+    }
+
+    public int deepest() {
+        return outboxes.values().stream().mapToInt(Outbox::size).max().orElse(0);
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+
+    private void execute(Outbox outbox) {
+        try {
+            senders.execute(outbox);
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down
+        }
+    }
+
+    // ACKs are cumulative, so a later one replaces any queued ACK. A DATA frame is keyed by its
+    // sequence number, so a retransmission replaces a copy of the frame still waiting in the queue.
+    private static long keyOf(byte[] packet, int length) {
+        if (length == 0) return 0;
+        if (packet[0] == ReliableEndpoint.ACK) return ACK_KEY;
+        if (packet[0] != ReliableEndpoint.DATA) return 0;
+        try {
+            return ACK_KEY + 1 + Codec.readVarLong(ByteBuffer.wrap(packet, 1, length - 1));
+        } catch (ProtocolException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token buckets for flood protection: one global budget, one per source address and one per
+// source address and message type for the types that have a limit. Each bucket is kept in the
+// equivalent GCRA form, a single long holding the time at which it will be full again, so the
+// per-address state is a row of longs in an open-addressing table keyed by address and port
+// packed into a long. The table is striped, so receive threads on different shards rarely meet
+// on a lock. Rows whose buckets are all full carry no information and are purged when the table
+// fills up, before it is allowed to grow.
+//
+// A sender can pick a new source port for every packet, so each address and port row is backed
+// by a row for the IP alone with the same buckets, hostShare times as large. Clients behind one
+// NAT share that row, which is why it is not simply the per-port budget. A packet is only charged
+// to either row once both have room, so one refused by the IP row leaves its port's budget intact.
+//
+// Limits are "<rate per second>/<burst>" or "off", set through chat.server.rate.global,
+// chat.server.rate.address and chat.server.rate.<TYPE>; chat.server.rate.hostShare sets the
+// multiple.
+public final class RateLimiter {
+    public static final String PROPERTY_PREFIX = "chat.server.rate.";
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_CAPACITY = 1 << 20;
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final int DEFAULT_HOST_SHARE = 4;
+    private static final long HOST_KEY = 1L << 48;
+
+    public static final class Limit {
+        final long intervalNanos;
+        final long toleranceNanos;
+
+        private Limit(double ratePerSecond, int burst) {
+            this(Math.max(1, (long) (1e9 / ratePerSecond)), (long) Math.max(burst, 1));
+        }
+
+        private Limit(long intervalNanos, long burst) {
+            this.intervalNanos = intervalNanos;
+            this.toleranceNanos = intervalNanos * (burst - 1);
+        }
+
+        // The same limit at factor times the rate and burst.
+        Limit scaled(int factor) {
+            var burst = toleranceNanos / intervalNanos + 1;
+            return new Limit(Math.max(1, intervalNanos / factor), burst * factor);
+        }
+
+        public static Limit parse(String value) {
+            if (value == null || value.equalsIgnoreCase("off")) return null;
+            var parts = value.split("/");
+            try {
+                var rate = Double.parseDouble(parts[0]);
+                var burst = parts.length > 1 ? Integer.parseInt(parts[1]) : (int) Math.ceil(rate);
+                return rate > 0 ? new Limit(rate, burst) : null;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected <rate>/<burst> or off, got " + value);
+            }
+        }
+    }
+
+    private final class Stripe {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] buckets = new long[INITIAL_CAPACITY * width];
+        private int size;
+
+        // The caller holds this stripe's lock for allows() and charge(). A row not in the table yet
+        // has full buckets.
+        boolean allows(long key, int bucket, Limit limit, long now) {
+            var row = find(key);
+            return row < 0 || Math.max(buckets[row * width + bucket], now) - now <= limit.toleranceNanos;
+        }
+
+        void charge(long key, int bucket, Limit limit, long now) {
+            var row = find(key);
+            if (row < 0) {
+                if (size + 1 > keys.length / 2 && !makeRoom(now)) return;
+                row = insert(key);
+            }
+            var index = row * width + bucket;
+            buckets[index] = Math.max(buckets[index], now) + limit.intervalNanos;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private int find(long key) {
+            var mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) return i;
+                if (keys[i] == 0) return -1;
+            }
+        }
+
+        private int insert(long key) {
+            var mask = keys.length - 1;
+            var i = mix(key) & mask;
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = key;
+            Arrays.fill(buckets, i * width, (i + 1) * width, Long.MIN_VALUE);
+            size++;
+            return i;
+        }
+
+        // Drops rows whose buckets are all full again, then grows the table if that was not
+        // enough. At the size cap new addresses go untracked and only the global budget applies.
+        private boolean makeRoom(long now) {
+            var oldKeys = keys;
+            var oldBuckets = buckets;
+            var live = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0 && !isIdle(oldBuckets, i, now)) live++;
+            }
+
+            var capacity = oldKeys.length;
+            while (live + 1 > capacity / 2 && capacity < MAX_CAPACITY / STRIPES) capacity *= 2;
+            if (live + 1 > capacity / 2) return false;
+
+            keys = new long[capacity];
+            buckets = new long[capacity * width];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0 || isIdle(oldBuckets, i, now)) continue;
+                var row = insert(oldKeys[i]);
+                System.arraycopy(oldBuckets, i * width, buckets, row * width, width);
+            }
+            return true;
+        }
+
+        private boolean isIdle(long[] rows, int row, long now) {
+            for (int b = 0; b < width; b++) {
+                if (rows[row * width + b] > now) return false;
+            }
+            return true;
+        }
+    }
+
+    private final Limit addressLimit;
+    private final Limit hostLimit;
+    private final Limit[] typeLimits = new Limit[TYPES.length];
+    private final Limit[] hostTypeLimits = new Limit[TYPES.length];
+    private final int[] typeBuckets = new int[TYPES.length];
+    private final Limit globalLimit;
+    private final AtomicLong globalFull = new AtomicLong(Long.MIN_VALUE);
+    private final int width;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public RateLimiter(Limit globalLimit, Limit addressLimit, Limit[] typeLimits, int hostShare) {
+        if (hostShare < 1) throw new IllegalArgumentException("hostShare must be at least 1, got " + hostShare);
+        this.globalLimit = globalLimit;
+        this.addressLimit = addressLimit;
+        this.hostLimit = addressLimit == null ? null : addressLimit.scaled(hostShare);
+        var buckets = 1;
+        for (int t = 0; t < TYPES.length; t++) {
+            this.typeLimits[t] = typeLimits[t];
+            this.hostTypeLimits[t] = typeLimits[t] == null ? null : typeLimits[t].scaled(hostShare);
+            this.typeBuckets[t] = typeLimits[t] == null ? -1 : buckets++;
+        }
+        this.width = buckets;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+    }
+
+    public static RateLimiter fromProperties() {
+        var types = new Limit[TYPES.length];
+        for (var type : TYPES) {
+            types[type.ordinal()] = Limit.parse(System.getProperty(PROPERTY_PREFIX + type.name(), defaultLimit(type)));
+        }
+        return new RateLimiter(Limit.parse(System.getProperty(PROPERTY_PREFIX + "global", "200000/400000")),
+                Limit.parse(System.getProperty(PROPERTY_PREFIX + "address", "1000/2000")), types,
+                Integer.getInteger(PROPERTY_PREFIX + "hostShare", DEFAULT_HOST_SHARE));
+    }
+
+    // Generous enough for a person typing, pasting or paging through history; tight enough that
+    // one client cannot make the server rebroadcast thousands of messages a second.
+    private static String defaultLimit(Message.Type type) {
+        switch (type) {
+            case CHAT:
+            case ROOM_MESSAGE:
+            case DIRECT_MESSAGE:
+                return "20/60";
+            case CHAT_PRIVATE:
+            case ROOM_JOIN:
+            case ROOM_PART:
+                return "5/20";
+            case HISTORY_REQUEST:
+                return "20/40";
+            case SEARCH_REQUEST:
+            case USER_LIST:
+                return "5/10";
+            case HELLO:
+            case PING:
+                return "1/5";
+            default:
+                return "off";
+        }
+    }
+
+    // Global and per-address budget for any packet, checked before it is even demultiplexed.
+    public boolean admitPacket(InetSocketAddress source, long nowNanos) {
+        if (globalLimit != null && !admitGlobal(nowNanos)) return false;
+        return addressLimit == null || admit(source, 0, addressLimit, hostLimit, nowNanos);
+    }
+
+    public boolean admit(InetSocketAddress source, Message.Type type, long nowNanos) {
+        var t = type.ordinal();
+        return typeLimits[t] == null || admit(source, typeBuckets[t], typeLimits[t], hostTypeLimits[t], nowNanos);
+    }
+
+    public boolean isLimited(Message.Type type) {
+        return typeLimits[type.ordinal()] != null;
+    }
+
+    public int size() {
+        return Arrays.stream(stripes).mapToInt(Stripe::size).sum();
+    }
+
+    // Both stripes are locked, lower index first so two threads never wait on each other. The two
+    // rows may share a stripe, in which case the second lock is simply reentered.
+    private boolean admit(InetSocketAddress source, int bucket, Limit limit, Limit hostLimit, long now) {
+        var key = key(source);
+        var host = key & ~0xFFFFL | HOST_KEY;
+        var port = stripe(key);
+        var ip = stripe(host);
+        var first = stripes[Math.min(port, ip)];
+        var second = stripes[Math.max(port, ip)];
+        synchronized (first) {
+            synchronized (second) {
+                if (!stripes[port].allows(key, bucket, limit, now) || !stripes[ip].allows(host, bucket, hostLimit, now)) return false;
+                stripes[ip].charge(host, bucket, hostLimit, now);
+                stripes[port].charge(key, bucket, limit, now);
+                return true;
+            }
+        }
+    }
+
+    private static int stripe(long key) {
+        return (mix(key) >>> 28) & (STRIPES - 1);
+    }
+
+    private boolean admitGlobal(long now) {
+        while (true) {
+            var current = globalFull.get();
+            var full = Math.max(current, now);
+            if (full - now > globalLimit.toleranceNanos) return false;
+            if (globalFull.compareAndSet(current, full + globalLimit.intervalNanos)) return true;
+        }
+    }
+
+    // IPv4 addresses and the port fit in the key exactly; IPv6 addresses are folded through their
+    // hash code, so two of them may rarely share a bucket. The top bit keeps every key non-zero.
+    // Rows for the IP alone have the port cleared and HOST_KEY set.
+    private static long key(InetSocketAddress source) {
+        var address = source.getAddress();
+        var tag = address instanceof Inet4Address ? 1L << 63 : 3L << 62;
+        return tag | (address.hashCode() & 0xFFFFFFFFL) << 16 | source.getPort();
+    }
+
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Per-peer reliability state. Reliable payloads travel as DATA frames ([0xB2][seq varint][seq - oldest
+// unacknowledged seq varint][payload]) and are acknowledged with ACK frames ([0xB3][next expected seq
+// varint][64-bit SACK bitmap]). The window base lets a receiver skip frames the sender gave up on.
+// Frames sent while WINDOW are unacknowledged wait in a bounded backlog and go out as ACKs open the
+// window; send() only refuses a frame once that backlog is full too, and the caller decides what to
+// do about the peer.
+// Unframed packets bypass this class entirely, so fire-and-forget traffic pays nothing.
+// Retransmits and delayed ACKs are driven by tick() from a shared timer, never by the receive loop.
+public final class ReliableEndpoint {
+    public static final byte DATA = (byte) 0xB2;
+    public static final byte ACK = (byte) 0xB3;
+    public static final String CAPABILITY = "rel1";
+    public static final long TICK_MILLIS = 10;
+
+    public static final int DELIVER = 0;
+    public static final int BUFFERED = 1;
+    public static final int DUPLICATE = 2;
+    public static final int DROPPED = 3;
+
+    private static final int WINDOW = 64;
+    private static final long INITIAL_RTO = 250;
+    private static final long MIN_RTO = 30;
+    private static final long MAX_RTO = 3000;
+    private static final int MAX_RETRIES = 8;
+    private static final int ACK_EVERY = 8;
+    // Room for several maximum-size messages, at about 55 fragments each, or a long burst
+    private static final int BACKLOG = 1024;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "Reliability-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ThreadLocal<byte[]> FRAME = ThreadLocal.withInitial(() -> new byte[MessageView.MAX_PACKET_SIZE + 21]);
+
+    public interface Transport {
+        void send(byte[] data, int length, InetSocketAddress address) throws IOException;
+    }
+
+    private final InetSocketAddress address;
+    private final Transport transport;
+
+    private final byte[][] payloads = new byte[WINDOW][];
+    private final int[] lengths = new int[WINDOW];
+    private final long[] sentAt = new long[WINDOW];
+    private final long[] deadlines = new long[WINDOW];
+    private final int[] retries = new int[WINDOW];
+    private long sendBase;
+    private long nextSeq;
+    private long srtt = -1;
+    private long rttvar;
+    private long rto = INITIAL_RTO;
+
+    private byte[][] backlog;
+    private int[] backlogLengths;
+    private int backlogHead;
+    private int backlogSize;
+
+    private byte[][] reorder;
+    private int[] reorderLengths;
+    private long expected;
+    private long skipTo;
+    private int unacked;
+    private boolean ackDue;
+    private final byte[] ackFrame = new byte[19];
+
+    private long retransmits;
+    private long lost;
+
+    public ReliableEndpoint(InetSocketAddress address, Transport transport) {
+        this.address = address;
+        this.transport = transport;
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable tick) {
+        return schedule(tick, TICK_MILLIS);
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable task, long periodMillis) {
+        return schedule(TIMER, task, periodMillis);
+    }
+
+    public static ScheduledFuture<?> schedule(ScheduledExecutorService timer, Runnable task, long periodMillis) {
+        return timer.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The single daemon thread behind schedule(). A process running thousands of endpoints, like
+    // the load generator, should give them a timer of their own rather than queue behind this one.
+    public static ScheduledExecutorService timer() {
+        return TIMER;
+    }
+
+    public static boolean isReliable(Message.Type type) {
+        switch (type) {
+            case SYSTEM:
+            case HELLO:
+            case HISTORY_CHUNK:
+            case PING:
+            case PONG:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public synchronized long getRetransmits() {
+        return retransmits;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    public synchronized long getRto() {
+        return rto;
+    }
+
+    public synchronized int getBacklog() {
+        return backlogSize;
+    }
+
+    // The payload array is retained for retransmission and may be shared between endpoints, so
+    // callers must not modify it afterwards. Returns false, and counts the frame as lost, when both
+    // the window and the backlog are full.
+    public synchronized boolean send(byte[] payload, int length) {
+        if (nextSeq - sendBase < WINDOW && backlogSize == 0) {
+            transmitNew(payload, length);
+            return true;
+        }
+        if (backlog == null) {
+            backlog = new byte[BACKLOG][];
+            backlogLengths = new int[BACKLOG];
+        }
+        if (backlogSize == BACKLOG) {
+            lost++;
+            return false;
+        }
+        var slot = (backlogHead + backlogSize++) & (BACKLOG - 1);
+        backlog[slot] = payload;
+        backlogLengths[slot] = length;
+        return true;
+    }
+
+    private void transmitNew(byte[] payload, int length) {
+        var seq = nextSeq++;
+        var slot = slot(seq);
+        var now = System.currentTimeMillis();
+        payloads[slot] = payload;
+        lengths[slot] = length;
+        sentAt[slot] = now;
+        deadlines[slot] = now + rto;
+        retries[slot] = 0;
+        transmit(seq, payload, length);
+    }
+
+    public synchronized void onAck(ByteBuffer frame) throws ProtocolException {
+        frame.get();
+        var cumulative = Codec.readVarLong(frame);
+        if (frame.remaining() < 8) throw new ProtocolException("Truncated ACK");
+        var sack = frame.getLong();
+        var now = System.currentTimeMillis();
+
+        for (var seq = sendBase; seq < Math.min(cumulative, nextSeq); seq++) acknowledge(seq, now);
+        for (int i = 0; i < 64 && sack != 0; i++) {
+            if ((sack & (1L << i)) == 0) continue;
+            var seq = cumulative + 1 + i;
+            if (seq >= sendBase && seq < nextSeq) acknowledge(seq, now);
+        }
+        advanceSendBase();
+
+        if (sack != 0 && cumulative < nextSeq && payloads[slot(cumulative)] != null && retries[slot(cumulative)] == 0) {
+            deadlines[slot(cumulative)] = now;
+        }
+    }
+
+    // Consumes the DATA header. On DELIVER the buffer is left positioned at the payload. Whatever the
+    // result, frames it unblocked must then be drained with pollReady().
+    public synchronized int onData(ByteBuffer frame) throws ProtocolException {
+        frame.get();
+        var seq = Codec.readVarLong(frame);
+        var back = Codec.readVarLong(frame);
+        if (seq < 0 || back < 0 || back > seq) throw new ProtocolException("Invalid DATA frame " + seq + "/" + back);
+        // A base moves the receiver at most one window per frame, however far ahead the peer claims
+        // to be, so a forged one cannot make a frame cost more than a window of work
+        var base = Math.min(seq - back, expected + WINDOW);
+        if (base > skipTo) {
+            skipTo = base;
+            skipAbandoned();
+        }
+
+        if (seq < expected) {
+            sendAck();
+            return DUPLICATE;
+        }
+        if (seq >= expected + WINDOW) return DROPPED;
+
+        if (seq == expected) {
+            expected++;
+            if (++unacked >= ACK_EVERY) {
+                sendAck();
+            } else {
+                ackDue = true;
+            }
+            return DELIVER;
+        }
+
+        if (reorder == null) {
+            reorder = new byte[WINDOW][];
+            reorderLengths = new int[WINDOW];
+        }
+        var slot = slot(seq);
+        if (reorder[slot] == null) {
+            var copy = new byte[frame.remaining()];
+            frame.get(copy);
+            reorder[slot] = copy;
+            reorderLengths[slot] = copy.length;
+        }
+        sendAck();
+        return BUFFERED;
+    }
+
+    public synchronized ByteBuffer pollReady() {
+        if (reorder == null) return null;
+        var slot = slot(expected);
+        var data = reorder[slot];
+        if (data == null) return null;
+
+        reorder[slot] = null;
+        expected++;
+        skipAbandoned();
+        ackDue = true;
+        return ByteBuffer.wrap(data, 0, reorderLengths[slot]);
+    }
+
+    public synchronized void tick() {
+        var now = System.currentTimeMillis();
+        for (var seq = sendBase; seq < nextSeq; seq++) {
+            var slot = slot(seq);
+            if (payloads[slot] == null || deadlines[slot] > now) continue;
+
+            if (retries[slot] >= MAX_RETRIES) {
+                drop(seq);
+                continue;
+            }
+            retries[slot]++;
+            retransmits++;
+            sentAt[slot] = now;
+            deadlines[slot] = now + Math.min(rto << retries[slot], MAX_RTO);
+            transmit(seq, payloads[slot], lengths[slot]);
+        }
+        advanceSendBase();
+
+        if (ackDue) sendAck();
+    }
+
+    // Stops at the first buffered frame; with nothing buffered the gap is skipped in one step.
+    private void skipAbandoned() {
+        var from = expected;
+        if (reorder == null) {
+            expected = Math.max(expected, skipTo);
+        } else {
+            while (expected < skipTo && reorder[slot(expected)] == null) expected++;
+        }
+        if (expected != from) ackDue = true;
+    }
+
+    private void acknowledge(long seq, long now) {
+        var slot = slot(seq);
+        if (payloads[slot] == null) return;
+        if (retries[slot] == 0) sampleRtt(now - sentAt[slot]);
+        payloads[slot] = null;
+    }
+
+    private void sampleRtt(long sample) {
+        if (srtt < 0) {
+            srtt = sample;
+            rttvar = sample / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - sample)) / 4;
+            srtt = (7 * srtt + sample) / 8;
+        }
+        rto = Math.max(MIN_RTO, Math.min(MAX_RTO, srtt + Math.max(TICK_MILLIS, 4 * rttvar)));
+    }
+
+    private void drop(long seq) {
+        var slot = slot(seq);
+        if (payloads[slot] == null) return;
+        payloads[slot] = null;
+        lost++;
+    }
+
+    // Moves past acknowledged and abandoned frames, then fills whatever space that opened with
+    // frames from the backlog.
+    private void advanceSendBase() {
+        while (sendBase < nextSeq && payloads[slot(sendBase)] == null) sendBase++;
+        while (backlogSize > 0 && nextSeq - sendBase < WINDOW) {
+            var slot = backlogHead;
+            var payload = backlog[slot];
+            backlog[slot] = null;
+            backlogHead = (backlogHead + 1) & (BACKLOG - 1);
+            backlogSize--;
+            transmitNew(payload, backlogLengths[slot]);
+        }
+    }
+
+    private void transmit(long seq, byte[] payload, int length) {
+        var frame = ByteBuffer.wrap(FRAME.get());
+        frame.put(DATA);
+        Codec.writeVarLong(frame, seq);
+        Codec.writeVarLong(frame, seq - sendBase);
+        frame.put(payload, 0, length);
+        try {
+            transport.send(frame.array(), frame.position(), address);
+        } catch (IOException e) {
+            System.err.println("Failed to send to " + address + ": " + e.getMessage());
+        }
+    }
+
+    private void sendAck() {
+        long sack = 0;
+        if (reorder != null) {
+            for (int i = 0; i < 63; i++) {
+                if (reorder[slot(expected + 1 + i)] != null) sack |= 1L << i;
+            }
+        }
+
+        var frame = ByteBuffer.wrap(ackFrame);
+        frame.put(ACK);
+        Codec.writeVarLong(frame, expected);
+        frame.putLong(sack);
+        unacked = 0;
+        ackDue = false;
+        try {
+            transport.send(ackFrame, frame.position(), address);
+        } catch (IOException e) {
+            System.err.println("Failed to acknowledge " + address + ": " + e.getMessage());
+        }
+    }
+
+    private static int slot(long seq) {
+        return (int) (seq & (WINDOW - 1));
+    }
+}
@@ -0,0 +1,92 @@
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// A named channel with its own members, broadcast audience and history. Rooms share nothing with
+// each other: membership changes lock only the room concerned and a fan-out reads the room's
+// audience snapshot without locking at all, so a busy room never holds up a quiet one.
+//
+// ROOM_JOIN, ROOM_PART and ROOM_MESSAGE all carry "<room>:<text>". A joining client gets its
+// ROOM_JOIN back with the room's history as text, and a parting client gets its ROOM_PART back.
+//
+// A room's history is sized from its entry count alone, so it only keeps entries of up to
+// MAX_HISTORY_ENTRY_BYTES; a longer message still reaches the members but is not replayed.
+public final class Room {
+    private static final Pattern NAME = Pattern.compile("#?[A-Za-z0-9_-]{1,32}");
+    private static final int MAX_HISTORY_ENTRY_BYTES = 4096;
+
+    private final String name;
+    private final Set<SocketAddress> members = ConcurrentHashMap.newKeySet();
+    private final MessageRing history;
+    private volatile Audience audience = Audience.EMPTY;
+
+    public Room(String name, int historySize) {
+        this.name = name;
+        this.history = new MessageRing(historySize, historySize * 256, MAX_HISTORY_ENTRY_BYTES);
+    }
+
+    public static boolean isValidName(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    // Room names are case-insensitive and the leading '#' is optional.
+    public static String normalize(String name) {
+        return (name.startsWith("#") ? name.substring(1) : name).toLowerCase(Locale.ROOT);
+    }
+
+    public static String content(String room, String text) {
+        return room + ":" + text;
+    }
+
+    public static String roomOf(String content) {
+        var colon = content.indexOf(':');
+        return colon < 0 ? content : content.substring(0, colon);
+    }
+
+    public static String textOf(String content) {
+        var colon = content.indexOf(':');
+        return colon < 0 ? "" : content.substring(colon + 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MessageRing getHistory() {
+        return history;
+    }
+
+    // Adds the message to the history unless it is too long to keep there.
+    public void remember(Message message) {
+        var data = message.toNetworkString().getBytes(StandardCharsets.UTF_8);
+        if (data.length <= MAX_HISTORY_ENTRY_BYTES) history.append(data, data.length);
+    }
+
+    public Audience getAudience() {
+        return audience;
+    }
+
+    public boolean contains(SocketAddress member) {
+        return members.contains(member);
+    }
+
+    public boolean add(SocketAddress member) {
+        return members.add(member);
+    }
+
+    public boolean remove(SocketAddress member) {
+        return members.remove(member);
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    public synchronized void rebuild(Set<SocketAddress> binaryClients, Map<SocketAddress, ReliableEndpoint> endpoints) {
+        audience = Audience.of(members, binaryClients, endpoints);
+    }
+}
@@ -0,0 +1,193 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// In-memory inverted index over chat history, keyed by history sequence. Every term and every
+// sender maps to a sorted array of sequence offsets, so adding a message is one array append per
+// distinct word. A query walks its shortest posting list from the newest match backwards and probes
+// the others by binary search, so the cost follows the rarest term rather than the history size.
+// Times are kept per sequence, which turns a time range into a sequence range with two binary
+// searches. Entries older than the history that can still be read are dropped in bulk by retainFrom.
+public final class SearchIndex {
+    public static final int MAX_TERM_LENGTH = 32;
+
+    public static final class Hits {
+        public final long[] seqs;
+        public final int count;
+        // Exclusive upper bound to pass as "before" for the next page, or -1 if this was the last.
+        public final long next;
+
+        Hits(long[] seqs, int count, long next) {
+            this.seqs = seqs;
+            this.count = count;
+            this.next = next;
+        }
+    }
+
+    private static final class Postings {
+        int[] offsets = new int[4];
+        int size;
+
+        void add(int offset) {
+            if (size > 0 && offsets[size - 1] == offset) return;
+            if (size == offsets.length) offsets = Arrays.copyOf(offsets, size * 2);
+            offsets[size++] = offset;
+        }
+
+        // Index of the last offset below bound, or -1.
+        int lastBelow(int bound) {
+            var lo = 0;
+            var hi = size;
+            while (lo < hi) {
+                var mid = (lo + hi) >>> 1;
+                if (offsets[mid] < bound) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo - 1;
+        }
+
+        void dropBelow(int bound) {
+            var from = lastBelow(bound) + 1;
+            size -= from;
+            System.arraycopy(offsets, from, offsets, 0, size);
+            for (int i = 0; i < size; i++) offsets[i] -= bound;
+            if (size < offsets.length / 4) offsets = Arrays.copyOf(offsets, Math.max(4, size * 2));
+        }
+    }
+
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<String, Postings> senders = new HashMap<>();
+    private final Postings all = new Postings();
+    private long base = -1;
+    private long[] times = new long[1024];
+    private int span;
+
+    // Takes every history entry in sequence order. Only CHAT entries are searchable, but the others
+    // still advance the time table.
+    public void add(long seq, long timeMillis, byte[] data, int length) {
+        var message = Message.fromNetworkString(new String(data, 0, length, StandardCharsets.UTF_8), "Server");
+        var chat = message.getType() == Message.Type.CHAT;
+        var sender = chat ? message.getSender().toLowerCase(Locale.ROOT) : null;
+        var words = chat ? tokenize(message.getContent()) : List.<String>of();
+
+        synchronized (this) {
+            if (base < 0) base = seq;
+            if (seq < base + span) return;
+            while (base + span <= seq) {
+                if (span == times.length) times = Arrays.copyOf(times, span * 2);
+                times[span++] = timeMillis;
+            }
+            if (!chat) return;
+
+            var offset = (int) (seq - base);
+            all.add(offset);
+            senders.computeIfAbsent(sender, s -> new Postings()).add(offset);
+            for (var word : words) terms.computeIfAbsent(word, t -> new Postings()).add(offset);
+        }
+    }
+
+    // Newest-first matches for all of the given terms, from sender if it is not null, written
+    // between fromMillis and toMillis inclusive and with a sequence below before.
+    public synchronized Hits search(List<String> queryTerms, String sender, long fromMillis, long toMillis, long before, int limit) {
+        var none = new Hits(new long[0], 0, -1);
+        if (base < 0 || limit <= 0) return none;
+
+        var lists = new ArrayList<Postings>();
+        lists.add(all);
+        if (sender != null) lists.add(senders.get(sender.toLowerCase(Locale.ROOT)));
+        for (var term : queryTerms) lists.add(terms.get(term));
+        if (lists.contains(null)) return none;
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        var lo = offsetAt(fromMillis);
+        var hi = toMillis == Long.MAX_VALUE ? span : offsetAt(toMillis + 1);
+        hi = (int) Math.max(0, Math.min(hi, before - base));
+
+        var driver = lists.get(0);
+        var bounds = new int[lists.size()];
+        for (int i = 1; i < lists.size(); i++) bounds[i] = lists.get(i).lastBelow(hi) + 1;
+
+        var seqs = new long[limit];
+        var count = 0;
+        for (int i = driver.lastBelow(hi); i >= 0; i--) {
+            var offset = driver.offsets[i];
+            if (offset < lo) break;
+            if (!matchesRest(lists, bounds, offset)) continue;
+            if (count == limit) return new Hits(seqs, count, seqs[count - 1]);
+            seqs[count++] = base + offset;
+        }
+        return new Hits(seqs, count, -1);
+    }
+
+    // Drops everything below seq. Only runs once a quarter of the index is stale, so the cost of
+    // rewriting every posting list is spread over many appends.
+    public synchronized void retainFrom(long seq) {
+        if (base < 0) return;
+        var drop = (int) Math.min(Math.max(0, seq - base), span);
+        if (drop == 0 || drop < span / 4) return;
+
+        for (var postings : List.of(terms, senders)) {
+            postings.values().removeIf(p -> {
+                p.dropBelow(drop);
+                return p.size == 0;
+            });
+        }
+        all.dropBelow(drop);
+        span -= drop;
+        System.arraycopy(times, drop, times, 0, span);
+        base += drop;
+    }
+
+    public synchronized int termCount() {
+        return terms.size();
+    }
+
+    public synchronized int documentCount() {
+        return all.size;
+    }
+
+    public static List<String> tokenize(String text) {
+        var tokens = new ArrayList<String>();
+        var token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                if (token.length() < MAX_TERM_LENGTH) token.append(Character.toLowerCase(text.charAt(i)));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean matchesRest(List<Postings> lists, int[] bounds, int offset) {
+        for (int i = 1; i < lists.size(); i++) {
+            // Candidates only get older, so each list's search range shrinks as the walk proceeds
+            var found = Arrays.binarySearch(lists.get(i).offsets, 0, bounds[i], offset);
+            bounds[i] = found >= 0 ? found : -found - 1;
+            if (found < 0) return false;
+        }
+        return true;
+    }
+
+    private int offsetAt(long timeMillis) {
+        var lo = 0;
+        var hi = span;
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (times[mid] < timeMillis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Content formats for history search. A SEARCH_REQUEST carries
+// "<before>:<fromMillis>:<toMillis>:<limit>:<sender>:<terms>" with sender and terms URL-encoded and
+// an empty sender matching anyone. A SEARCH_RESULT carries "<next>:<count>:" followed by the matches,
+// newest first, as "||"-terminated history entries; next is the before value for the following
+// page, or -1 once there is nothing older.
+public final class SearchPage {
+    public static final int MAX_LIMIT = 100;
+    public static final int MAX_RESULT_BYTES = 32 * 1024;
+
+    public static final class Query {
+        public final List<String> terms;
+        public final String sender;
+        public final long fromMillis;
+        public final long toMillis;
+        public final long before;
+        public final int limit;
+
+        private Query(List<String> terms, String sender, long fromMillis, long toMillis, long before, int limit) {
+            this.terms = terms;
+            this.sender = sender;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.before = before;
+            this.limit = limit;
+        }
+    }
+
+    // Collects matches up to a byte budget. The first entry that no longer fits ends the page, and
+    // next moves back so the following page starts with it.
+    public static final class Builder {
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private final int maxBytes;
+        private long next;
+        private long lastSeq = -1;
+        private int count;
+        private boolean full;
+
+        public Builder(long next, int maxBytes) {
+            this.next = next;
+            this.maxBytes = maxBytes;
+        }
+
+        public void add(long seq, byte[] data, int length) {
+            if (full) return;
+            if (count > 0 && entries.size() + length + 2 > maxBytes) {
+                full = true;
+                next = lastSeq;
+                return;
+            }
+            entries.write(data, 0, length);
+            entries.write('|');
+            entries.write('|');
+            lastSeq = seq;
+            count++;
+        }
+
+        public byte[] build() {
+            var header = (next + ":" + count + ":").getBytes(StandardCharsets.US_ASCII);
+            var content = new byte[header.length + entries.size()];
+            System.arraycopy(header, 0, content, 0, header.length);
+            System.arraycopy(entries.toByteArray(), 0, content, header.length, entries.size());
+            return content;
+        }
+    }
+
+    public final long next;
+    public final List<Message> entries;
+
+    private SearchPage(long next, List<Message> entries) {
+        this.next = next;
+        this.entries = entries;
+    }
+
+    public static String request(String terms, String sender, long fromMillis, long toMillis, long before, int limit) {
+        return before + ":" + fromMillis + ":" + toMillis + ":" + limit + ":"
+                + URLEncoder.encode(sender == null ? "" : sender, StandardCharsets.UTF_8) + ":"
+                + URLEncoder.encode(terms, StandardCharsets.UTF_8);
+    }
+
+    public static Query parseRequest(String content) throws ProtocolException {
+        var parts = content.split(":", 6);
+        if (parts.length < 6) throw new ProtocolException("Malformed search request: " + content);
+
+        try {
+            var sender = URLDecoder.decode(parts[4], StandardCharsets.UTF_8);
+            var terms = SearchIndex.tokenize(URLDecoder.decode(parts[5], StandardCharsets.UTF_8));
+            var limit = Math.min(Integer.parseInt(parts[3]), MAX_LIMIT);
+            return new Query(terms, sender.isEmpty() ? null : sender, Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[0]), limit);
+        } catch (RuntimeException e) {
+            throw new ProtocolException("Malformed search request: " + content);
+        }
+    }
+
+    public static SearchPage parse(String content) throws ProtocolException {
+        var parts = content.split(":", 3);
+        if (parts.length < 3) throw new ProtocolException("Malformed search result");
+
+        try {
+            var entries = new ArrayList<Message>();
+            for (var entry : parts[2].split("\\|\\|")) {
+                if (!entry.isEmpty()) entries.add(Message.fromNetworkString(entry, "Server"));
+            }
+            return new SearchPage(Long.parseLong(parts[0]), entries);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Malformed search result header");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+// Headless server entry point for machines without a display. Nothing here or in the server refers
+// to AWT or Swing, so none of it is loaded.
+//
+//   java -cp chat-app.jar ServerMain --port 5050 --bind 0.0.0.0 --history 4096 --workers 8 --engine sharded
+//   java -cp chat-app.jar ServerMain --config server.properties --port 5051
+//   java -cp chat-app.jar ServerMain --port 5051 --peers host-a:5051,host-b:5051,host-c:5051
+//
+// A config file takes the same options by name (port=5050) and may also set any chat.* system
+// property, such as chat.server.log.dir or chat.server.rate.CHAT. Options on the command line win
+// over the file, and the file over -D properties. --exit-when-ready starts the server, reports how
+// long that took and exits; the build runs it to record the classes a server loads for its CDS archive.
+public final class ServerMain {
+    private static final int DEFAULT_PORT = 5050;
+    private static final Map<String, String> OPTION_PROPERTIES = Map.of(
+            "bind", ChatServer.BIND_PROPERTY,
+            "history", ChatServer.HISTORY_PROPERTY,
+            "workers", ShardedServer.WORKERS_PROPERTY,
+            "engine", ChatServer.ENGINE_PROPERTY,
+            "peers", Federation.PEERS_PROPERTY
+    );
+
+    private ServerMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var start = System.nanoTime();
+        Map<String, String> options;
+        int port;
+        try {
+            options = parseOptions(args);
+            port = parsePort(options.getOrDefault("port", String.valueOf(DEFAULT_PORT)));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+        if (options.containsKey("help")) {
+            printUsage();
+            return;
+        }
+
+        for (var entry : OPTION_PROPERTIES.entrySet()) {
+            var value = options.get(entry.getKey());
+            if (value != null) System.setProperty(entry.getValue(), value);
+        }
+
+        var server = ChatServer.create(port);
+        server.start();
+        System.out.printf(Locale.ROOT, "Server ready in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        if (options.containsKey("exit-when-ready")) {
+            server.close();
+            server.join();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "ServerMain-Shutdown"));
+        server.join();
+    }
+
+    // Options are "--name value"; a bare "--name" is a flag. A config file is read as soon as it is
+    // seen, and whatever the command line sets, before or after it, takes precedence.
+    private static Map<String, String> parseOptions(String[] args) throws IOException {
+        var options = new HashMap<String, String>();
+        Path config = null;
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Expected --option, got " + args[i]);
+
+            var name = args[i].substring(2);
+            var flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+            var value = flag ? "true" : args[++i];
+            if (name.equals("config")) {
+                config = Path.of(value);
+            } else if (isOption(name) || name.equals("help") || name.equals("exit-when-ready")) {
+                options.put(name, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        if (config != null) readConfig(config, options);
+        return options;
+    }
+
+    private static void readConfig(Path path, Map<String, String> options) throws IOException {
+        var properties = new Properties();
+        try (var reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+        for (var name : properties.stringPropertyNames()) {
+            var value = properties.getProperty(name).trim();
+            if (name.startsWith("chat.")) {
+                System.setProperty(name, value);
+            } else if (isOption(name)) {
+                options.putIfAbsent(name, value);
+            } else {
+                throw new IllegalArgumentException("Unknown setting " + name + " in " + path);
+            }
+        }
+    }
+
+    private static int parsePort(String value) {
+        try {
+            var port = Integer.parseInt(value);
+            if (port >= 0 && port <= 65535) return port;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid port: " + value);
+    }
+
+    private static boolean isOption(String name) {
+        return name.equals("port") || OPTION_PROPERTIES.containsKey(name);
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: ServerMain [--config FILE] [--port N] [--bind ADDRESS] [--history N] [--workers N]");
+        System.out.println("                  [--engine classic|nio|sharded] [--peers HOST:PORT,...] [--exit-when-ready]");
+    }
+}
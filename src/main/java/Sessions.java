@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs per-client work off the receive loop. Each client gets a mailbox that is drained by at most
+// one task at a time, so a client's requests keep their order while different clients proceed in
+// parallel. Submitting never blocks; with virtual threads every active mailbox is one virtual thread.
+public final class Sessions {
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    private final class Mailbox implements Runnable {
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Task task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            do {
+                Task task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("Error processing packet: " + e.getMessage());
+                    }
+                }
+                scheduled.set(false);
+            } while (!tasks.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Map<SocketAddress, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private Sessions(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively so the sources still
+    // target Java 11; on older runtimes this returns null and callers stay on the receive thread.
+    public static Sessions virtual() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new Sessions((ExecutorService) factory.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public void submit(SocketAddress client, Task task) {
+        mailboxes.computeIfAbsent(client, c -> new Mailbox()).submit(task);
+    }
+
+    public void remove(SocketAddress client) {
+        mailboxes.remove(client);
+    }
+}
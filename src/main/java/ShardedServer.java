@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ShardedServer extends ChatServer {
+    public static final String WORKERS_PROPERTY = "chat.server.workers";
+    private static final int WORKER_QUEUE_CAPACITY = 4096;
+
+    private final int workerCount;
+    private final DatagramChannel[] channels;
+    private final boolean reusePort;
+    private final List<Thread> workers = new CopyOnWriteArrayList<>();
+
+    private static final class Inbound {
+        final InetSocketAddress address;
+        final byte[] data;
+
+        Inbound(InetSocketAddress address, byte[] data) {
+            this.address = address;
+            this.data = data;
+        }
+    }
+
+    public ShardedServer(int port, int workerCount) throws IOException {
+        super(port, "ShardedServer");
+        this.workerCount = Math.max(1, workerCount);
+
+        var probe = DatagramChannel.open();
+        reusePort = probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+
+        channels = new DatagramChannel[reusePort ? this.workerCount : 1];
+        channels[0] = probe;
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                if (channels[i] == null) channels[i] = DatagramChannel.open();
+                if (reusePort) channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channels[i].bind(new InetSocketAddress(bindAddress(), port));
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    @Override
+    public void run() {
+        System.out.println("Sharded server started on port " + port + " with " + workerCount + " workers"
+                + (reusePort ? " (SO_REUSEPORT)" : " (single receiver)"));
+        System.out.println("Server IP address: " + getServerIpAddress());
+
+        if (reusePort) {
+            for (int i = 0; i < channels.length; i++) {
+                var channel = channels[i];
+                startWorker("ShardedServer-Worker-" + i, () -> receiveLoop(channel));
+            }
+        } else {
+            var queues = new ArrayList<BlockingQueue<Inbound>>(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                var queue = new ArrayBlockingQueue<Inbound>(WORKER_QUEUE_CAPACITY);
+                queues.add(queue);
+                startWorker("ShardedServer-Worker-" + i, () -> workerLoop(queue));
+            }
+            startWorker("ShardedServer-Receiver", () -> dispatchLoop(channels[0], queues));
+        }
+
+        for (var worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        close();
+    }
+
+    private void startWorker(String name, Runnable task) {
+        var worker = new Thread(task, name);
+        worker.setDaemon(true);
+        workers.add(worker);
+        worker.start();
+    }
+
+    private void receiveLoop(DatagramChannel channel) {
+        var buffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+        var view = new MessageView();
+
+        while (running) {
+            InetSocketAddress clientAddr = null;
+            try {
+                buffer.clear();
+                clientAddr = (InetSocketAddress) channel.receive(buffer);
+                buffer.flip();
+                onPacket(clientAddr, buffer, view);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (!running) break;
+                System.err.println("Error processing packet: " + e.getMessage());
+            } catch (RuntimeException e) {
+                packetFailed(clientAddr, e);
+            }
+        }
+    }
+
+    private void dispatchLoop(DatagramChannel channel, List<BlockingQueue<Inbound>> queues) {
+        var buffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+
+        while (running) {
+            try {
+                buffer.clear();
+                var clientAddr = (InetSocketAddress) channel.receive(buffer);
+                buffer.flip();
+                var data = new byte[buffer.remaining()];
+                buffer.get(data);
+
+                var queue = queues.get(shardOf(clientAddr, queues.size()));
+                if (!queue.offer(new Inbound(clientAddr, data))) {
+                    System.err.println("Worker queue full, dropping packet from " + clientAddr);
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (!running) break;
+                System.err.println("Error receiving packet: " + e.getMessage());
+            }
+        }
+    }
+
+    private void workerLoop(BlockingQueue<Inbound> queue) {
+        var view = new MessageView();
+
+        while (running) {
+            Inbound inbound = null;
+            try {
+                inbound = queue.take();
+                onPacket(inbound.address, ByteBuffer.wrap(inbound.data), view);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("Error processing packet: " + e.getMessage());
+            } catch (RuntimeException e) {
+                packetFailed(inbound.address, e);
+            }
+        }
+    }
+
+    private static int shardOf(InetSocketAddress address, int shards) {
+        return (address.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    @Override
+    protected void sendPacket(byte[] data, int length, InetSocketAddress address) throws IOException {
+        channels[shardOf(address, channels.length)].send(ByteBuffer.wrap(data, 0, length), address);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeChannels();
+        for (var worker : workers) worker.interrupt();
+        releaseResources();
+    }
+
+    private void closeChannels() {
+        for (var channel : channels) {
+            if (channel == null) continue;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
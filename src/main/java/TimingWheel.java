@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Hierarchical timing wheel: LEVELS wheels of SLOTS buckets each, where one bucket of a wheel spans
+// a whole turn of the wheel below it. Scheduling and cancelling are O(1) list operations and each
+// tick only looks at one bucket, plus an occasional cascade that moves a bucket of a coarser wheel
+// down as its time comes closer. Deadlines past the outermost wheel are clamped to its last bucket
+// and simply come around again. Not thread-safe; the owner serializes access.
+public final class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    public static final class Timeout<T> {
+        private final T value;
+        private long tick;
+        private int level = -1;
+        private int slot;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(T value) {
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public boolean isPending() {
+            return level >= 0;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout<T>[][] buckets;
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.buckets = newBuckets();
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    // Java cannot create a Timeout<T>[][] directly. The cast is safe because the array never leaves
+    // this wheel and only ever holds timeouts it created for T.
+    @SuppressWarnings("unchecked")
+    private static <T> Timeout<T>[][] newBuckets() {
+        return (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+    }
+
+    public Timeout<T> schedule(T value, long deadlineMillis) {
+        var timeout = new Timeout<>(value);
+        reschedule(timeout, deadlineMillis);
+        return timeout;
+    }
+
+    public void reschedule(Timeout<T> timeout, long deadlineMillis) {
+        cancel(timeout);
+        timeout.tick = Math.max(deadlineMillis / tickMillis, currentTick + 1);
+        insert(timeout);
+        size++;
+    }
+
+    public void cancel(Timeout<T> timeout) {
+        if (!timeout.isPending()) return;
+        unlink(timeout);
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Moves the wheel up to nowMillis and returns the values whose deadline has passed.
+    public List<T> advance(long nowMillis) {
+        var expired = new ArrayList<T>();
+        var target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            for (int level = 1; level < LEVELS && cascades(level); level++) {
+                cascade(level, (int) (currentTick >>> (level * SLOT_BITS)) & (SLOTS - 1));
+            }
+
+            var slot = (int) currentTick & (SLOTS - 1);
+            var timeout = buckets[0][slot];
+            buckets[0][slot] = null;
+            while (timeout != null) {
+                var next = timeout.next;
+                timeout.level = -1;
+                timeout.previous = timeout.next = null;
+                size--;
+                expired.add(timeout.value);
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+
+    private boolean cascades(int level) {
+        return (currentTick & ((1L << (level * SLOT_BITS)) - 1)) == 0;
+    }
+
+    private void cascade(int level, int slot) {
+        var timeout = buckets[level][slot];
+        buckets[level][slot] = null;
+        while (timeout != null) {
+            var next = timeout.next;
+            timeout.previous = timeout.next = null;
+            insert(timeout);
+            timeout = next;
+        }
+    }
+
+    private void insert(Timeout<T> timeout) {
+        var delta = Math.max(timeout.tick - currentTick, 0);
+        var level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << ((level + 1) * SLOT_BITS)) level++;
+
+        var tick = level == LEVELS - 1 ? Math.min(timeout.tick, currentTick + (1L << (LEVELS * SLOT_BITS)) - 1) : timeout.tick;
+        timeout.level = level;
+        timeout.slot = (int) (tick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+        timeout.next = buckets[level][timeout.slot];
+        if (timeout.next != null) timeout.next.previous = timeout;
+        buckets[level][timeout.slot] = timeout;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) timeout.next.previous = timeout.previous;
+        timeout.level = -1;
+        timeout.previous = timeout.next = null;
+    }
+}
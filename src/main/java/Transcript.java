@@ -0,0 +1,131 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Append-only record on disk of every message the chat window has shown, so an export covers the
+// whole session while the view only keeps its scrollback. Each record is a 4-byte length followed by
+// the message in the binary wire format. A reader stops at the length the file had when it started,
+// so messages that arrive during an export land after it instead of racing it.
+//
+// chat.client.transcript names a file to keep across sessions; otherwise a temporary file is used
+// and deleted on close. A kept file is cut back to its last complete record on open, since a crash
+// mid-append would otherwise leave a torn record that every later export trips over.
+public final class Transcript implements Closeable {
+    public static final String PATH_PROPERTY = "chat.client.transcript";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_BYTES = 256 * 1024;
+
+    public interface Visitor {
+        void accept(Message message) throws IOException;
+    }
+
+    public interface Progress {
+        void update(long done, long total);
+    }
+
+    private final Path path;
+    private final boolean temporary;
+    private final DataOutputStream out;
+    private long size;
+    private boolean failed;
+
+    private Transcript(Path path, boolean temporary) throws IOException {
+        this.path = path;
+        this.temporary = temporary;
+        this.size = recover(path);
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE));
+    }
+
+    public static Transcript open() throws IOException {
+        var configured = System.getProperty(PATH_PROPERTY);
+        if (configured != null) return new Transcript(Path.of(configured), false);
+        return new Transcript(Files.createTempFile("chat-transcript", ".bin"), true);
+    }
+
+    // Walks the record headers and truncates whatever follows the last record that is all there.
+    // Returns the resulting length.
+    private static long recover(Path path) throws IOException {
+        if (!Files.exists(path)) return 0;
+        var size = Files.size(path);
+        long position = 0;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            while (size - position >= 4) {
+                var length = in.readInt();
+                if (length < 0 || length > size - position - 4 || in.skipBytes(length) != length) break;
+                position += 4 + length;
+            }
+        }
+        if (position < size) {
+            System.err.println("Dropping " + (size - position) + " bytes of incomplete records from chat transcript " + path);
+            try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(position);
+            }
+        }
+        return position;
+    }
+
+    // A failed write is reported once and stops the transcript, rather than once per message.
+    public synchronized void append(Message message) {
+        if (failed) return;
+        var data = message.toBinary();
+        try {
+            out.writeInt(data.length);
+            out.write(data);
+            size += 4 + data.length;
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("Failed to write chat transcript " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Flushes buffered appends and returns the length a reader may go up to.
+    public synchronized long flush() throws IOException {
+        out.flush();
+        return size;
+    }
+
+    // Streams every message up to limit through the visitor in order, reporting the bytes read so
+    // far. Interrupting the calling thread stops it with an InterruptedIOException.
+    public void read(long limit, Visitor visitor, Progress progress) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            var buffer = new byte[256];
+            long position = 0;
+            long reported = 0;
+            while (position < limit) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Export cancelled");
+
+                var length = in.readInt();
+                if (length > buffer.length) buffer = new byte[Math.max(length, buffer.length * 2)];
+                in.readFully(buffer, 0, length);
+                position += 4 + length;
+                visitor.accept(Message.fromBinary(ByteBuffer.wrap(buffer, 0, length)));
+
+                if (position - reported >= PROGRESS_BYTES) {
+                    reported = position;
+                    progress.update(position, limit);
+                }
+            }
+            progress.update(limit, limit);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+            if (temporary) Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Failed to close chat transcript " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+// Writes a transcript to a file one message at a time, so memory use does not depend on the length
+// of the session. The format follows the file name: ".txt" or ".jsonl", optionally followed by ".gz".
+// Output goes to a temporary file next to the target that is moved into place once complete, so a
+// failed or cancelled export never leaves a truncated file behind.
+public final class TranscriptExport {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        TEXT(".txt"),
+        JSON_LINES(".jsonl");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    private TranscriptExport() {
+    }
+
+    // Null if the name has no known extension.
+    public static Format formatOf(String fileName) {
+        var name = stripGzip(fileName.toLowerCase(Locale.ROOT));
+        for (var format : Format.values()) {
+            if (name.endsWith(format.extension)) return format;
+        }
+        return null;
+    }
+
+    public static boolean isCompressed(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    // Returns the number of messages written. The header is written at the top of text exports;
+    // text turns a message into its line.
+    public static long write(Transcript transcript, Path target, String header, Function<Message, String> text,
+                             Transcript.Progress progress) throws IOException {
+        var fileName = target.getFileName().toString();
+        var format = formatOf(fileName);
+        if (format == null) throw new IOException("Unknown export format: " + fileName);
+
+        var limit = transcript.flush();
+        var partial = Files.createTempFile(target.toAbsolutePath().getParent(), fileName, ".partial");
+        var count = new long[1];
+        try {
+            try (var writer = open(partial, isCompressed(fileName))) {
+                if (format == Format.TEXT && header != null) writer.write(header);
+                transcript.read(limit, message -> {
+                    if (format == Format.TEXT) {
+                        writer.write(text.apply(message));
+                    } else {
+                        writeJson(writer, message);
+                    }
+                    writer.write('\n');
+                    count[0]++;
+                }, progress);
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        return count[0];
+    }
+
+    private static Writer open(Path path, boolean gzip) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+        if (gzip) out = new GZIPOutputStream(out, BUFFER_SIZE);
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static void writeJson(Writer writer, Message message) throws IOException {
+        writer.write("{\"time\":\"");
+        writer.write(message.getTimestamp().toString());
+        writer.write("\",\"type\":\"");
+        writer.write(message.getType().name());
+        writer.write("\",\"sender\":");
+        writeJsonString(writer, message.getSender());
+        writer.write(",\"content\":");
+        writeJsonString(writer, message.getContent());
+        writer.write('}');
+    }
+
+    // Writes runs of characters that need no escaping in one call each.
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        var run = 0;
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+
+            writer.write(value, run, i - run);
+            run = i + 1;
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write(String.format("\\u%04x", (int) c));
+            }
+        }
+        writer.write(value, run, value.length() - run);
+        writer.write('"');
+    }
+
+    private static String stripGzip(String name) {
+        return name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+    }
+}
@@ -0,0 +1,123 @@
+import java.nio.ByteBuffer;
+
+public final class Utf8Slice implements CharSequence {
+    private ByteBuffer buffer;
+    private int offset;
+    private int byteLength;
+    private char[] chars = new char[64];
+    private int charLength = -1;
+    private boolean ascii;
+
+    Utf8Slice set(ByteBuffer buffer, int offset, int byteLength) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.byteLength = byteLength;
+        this.charLength = -1;
+        return this;
+    }
+
+    public int byteLength() {
+        return byteLength;
+    }
+
+    public void copyBytesTo(ByteBuffer out) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(offset + byteLength).position(offset);
+        out.put(buffer);
+        buffer.limit(limit).position(position);
+    }
+
+    private void decode() {
+        if (charLength >= 0) return;
+
+        ascii = true;
+        for (int i = 0; i < byteLength; i++) {
+            if (buffer.get(offset + i) < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            charLength = byteLength;
+            return;
+        }
+
+        if (chars.length < byteLength) chars = new char[Math.max(byteLength, chars.length * 2)];
+        int count = 0;
+        int i = 0;
+        // Malformed input decodes as String does: each lead byte that cannot start a character, and
+        // each valid prefix cut short by a bad continuation byte, becomes one U+FFFD. The second
+        // byte's range excludes overlong forms and code points above U+10FFFF; an encoded surrogate
+        // is read whole and replaced by a single U+FFFD.
+        while (i < byteLength) {
+            int b = buffer.get(offset + i++) & 0xFF;
+            int codePoint;
+            int extra;
+            int lower = 0x80;
+            int upper = 0xBF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+                continue;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                codePoint = b & 0x1F;
+                extra = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                codePoint = b & 0x0F;
+                extra = 2;
+                if (b == 0xE0) lower = 0xA0;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                codePoint = b & 0x07;
+                extra = 3;
+                if (b == 0xF0) lower = 0x90;
+                if (b == 0xF4) upper = 0x8F;
+            } else {
+                chars[count++] = '\uFFFD';
+                continue;
+            }
+
+            int k = 0;
+            for (; k < extra && i < byteLength; k++, i++) {
+                int next = buffer.get(offset + i) & 0xFF;
+                if (next < lower || next > upper) break;
+                codePoint = (codePoint << 6) | (next & 0x3F);
+                lower = 0x80;
+                upper = 0xBF;
+            }
+            if (k < extra || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                chars[count++] = '\uFFFD';
+            } else if (Character.isBmpCodePoint(codePoint)) {
+                chars[count++] = (char) codePoint;
+            } else {
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+            }
+        }
+        charLength = count;
+    }
+
+    @Override
+    public int length() {
+        decode();
+        return charLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        decode();
+        if (index < 0 || index >= charLength) throw new IndexOutOfBoundsException(index);
+        return ascii ? (char) buffer.get(offset + index) : chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        decode();
+        if (!ascii) return new String(chars, 0, charLength);
+        return Codec.decodeUtf8(buffer, offset, byteLength);
+    }
+}
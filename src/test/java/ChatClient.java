@@ -0,0 +1,43 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// A Client whose messages are collected by a background thread, so a test can wait for the next
+// message of a type without blocking on the socket itself.
+final class ChatClient implements Closeable {
+    private static final long TIMEOUT_MILLIS = 3000;
+
+    final Client client;
+    private final BlockingQueue<Message> inbox = new LinkedBlockingQueue<>();
+
+    ChatClient(int port, String nickname) throws IOException {
+        client = new Client("localhost", port, nickname);
+        var receiver = new Thread(() -> {
+            try {
+                while (true) inbox.add(client.receive());
+            } catch (IOException e) {
+                // Socket closed
+            }
+        }, "Receive-" + nickname);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    // The next message of any of the given types, skipping others, or null if none arrives within
+    // a few seconds.
+    Message next(Message.Type... types) throws InterruptedException {
+        var end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            var message = inbox.poll(Math.max(1, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (message == null || List.of(types).contains(message.getType())) return message;
+        }
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
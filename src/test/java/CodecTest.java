@@ -0,0 +1,48 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CodecTest {
+    @Test
+    void writesLoneSurrogatesAsOneByte() {
+        for (var text : List.of("a\uD800b", "\uDC00", "x\uD83D", "😀\uDE00", "é€😀")) {
+            var expected = text.getBytes(StandardCharsets.UTF_8);
+            assertEquals(expected.length, Codec.utf8Length(text), text);
+
+            var buffer = ByteBuffer.allocate(64);
+            Codec.writeUtf8(buffer, text);
+            assertArrayEquals(expected, Arrays.copyOf(buffer.array(), buffer.position()), text);
+        }
+    }
+
+    // Well-formed text, then overlong forms, encoded surrogates, code points past U+10FFFF, bad and
+    // missing continuation bytes, and stray continuation bytes. The slice must agree with String.
+    @Test
+    void decodesMalformedInputLikeString() {
+        var cases = new int[][]{
+                {0x41, 0xC3, 0xA9, 0xE2, 0x82, 0xAC, 0xF0, 0x9F, 0x98, 0x80},
+                {0xC0, 0xAF}, {0xC1, 0xBF}, {0xE0, 0x80, 0xBF}, {0xE0, 0x9F, 0xBF}, {0xF0, 0x8F, 0xBF, 0xBF},
+                {0xED, 0xA0, 0x80}, {0xED, 0xBF, 0xBF}, {0xED, 0xA0, 0x41}, {0xED, 0xA0, 0xC3},
+                {0xF4, 0x90, 0x80, 0x80}, {0xF5, 0x80, 0x80, 0x80}, {0xFF},
+                {0xC3, 0x41}, {0xE2, 0x82, 0x41}, {0xF0, 0x9F, 0x98, 0x41}, {0xE2, 0x82}, {0x41, 0xF0, 0x9F},
+                {0x80}, {0xBF, 0x80, 0x41},
+        };
+        for (var values : cases) {
+            var bytes = new byte[values.length + 1];
+            // One non-ASCII byte up front keeps the slice off its ASCII shortcut
+            bytes[0] = (byte) 0xFE;
+            for (int i = 0; i < values.length; i++) bytes[i + 1] = (byte) values[i];
+
+            var expected = new String(bytes, StandardCharsets.UTF_8);
+            var slice = new Utf8Slice().set(ByteBuffer.wrap(bytes), 0, bytes.length);
+            assertEquals(expected, slice.toString(), Arrays.toString(values));
+            assertEquals(expected.length(), slice.length(), Arrays.toString(values));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionTest {
+    @Test
+    void roundTripsAChatMessage() throws Exception {
+        var data = chat(2000);
+        var frame = Compression.compress(data, data.length);
+
+        assertNotNull(frame);
+        assertTrue(frame.length < data.length / 2, () -> frame.length + " of " + data.length + " bytes");
+        var packet = ByteBuffer.wrap(frame);
+        assertTrue(Compression.isCompressed(packet));
+        assertArrayEquals(data, bytes(Compression.inflate(packet)));
+    }
+
+    @Test
+    void leavesSmallAndIncompressiblePacketsAlone() {
+        var data = chat(2000);
+        assertNull(Compression.compress(data, Compression.THRESHOLD - 1));
+
+        var noise = new byte[4000];
+        new Random(1).nextBytes(noise);
+        assertNull(Compression.compress(noise, noise.length));
+    }
+
+    @Test
+    void rejectsCorruptStreams() {
+        var data = chat(2000);
+        var frame = Compression.compress(data, data.length);
+        var truncated = Arrays.copyOf(frame, frame.length / 2);
+        assertThrows(ProtocolException.class, () -> Compression.inflate(ByteBuffer.wrap(truncated)));
+
+        var garbage = frame.clone();
+        for (int i = 4; i < garbage.length; i++) garbage[i] ^= 0x5A;
+        assertThrows(ProtocolException.class, () -> Compression.inflate(ByteBuffer.wrap(garbage)));
+    }
+
+    @Test
+    void rejectsAWrongDeclaredLength() {
+        var data = chat(2000);
+        var frame = Compression.compress(data, data.length);
+        var body = Arrays.copyOfRange(frame, 1 + Codec.varLongSize(data.length), frame.length);
+
+        assertThrows(ProtocolException.class, () -> Compression.inflate(withLength(data.length + 1, body)));
+        assertThrows(ProtocolException.class, () -> Compression.inflate(withLength(data.length - 1, body)));
+        assertThrows(ProtocolException.class, () -> Compression.inflate(withLength(MessageView.MAX_MESSAGE_SIZE + 1, body)));
+        assertThrows(ProtocolException.class, () -> Compression.inflate(withLength(1L << 40, body)));
+    }
+
+    static ByteBuffer withLength(long length, byte[] body) {
+        var packet = ByteBuffer.allocate(11 + body.length).put(Compression.MAGIC);
+        Codec.writeVarLong(packet, length);
+        return packet.put(body).flip();
+    }
+
+    private static byte[] chat(int size) {
+        var words = "so I think we should ship the build today if the tests pass and then look at the bug".split(" ");
+        var random = new Random(size);
+        var text = new StringBuilder();
+        while (text.length() < size) text.append(words[random.nextInt(words.length)]).append(' ');
+        return new Message(text.substring(0, size), "alice", Message.Type.CHAT).encode(false);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        var data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+}
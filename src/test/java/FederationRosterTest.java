@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two nodes wired back to back in memory, one of them with far more users than fit in a packet.
+class FederationRosterTest {
+    private static final InetSocketAddress FIRST = new InetSocketAddress("127.0.0.1", 1);
+    private static final InetSocketAddress SECOND = new InetSocketAddress("127.0.0.1", 2);
+    // Magic byte plus two node ids
+    private static final int ENVELOPE_BYTES = 1 + 2 * 10;
+
+    @Test
+    void sendsALargeRosterInPagesAndFillsInALostOne() throws Exception {
+        var users = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) users.add("user" + i);
+
+        var largest = new AtomicInteger();
+        var sent = new AtomicInteger();
+        var nodes = new Federation[2];
+        nodes[0] = new Federation(List.of(SECOND), (data, length, to) -> {
+            largest.accumulateAndGet(length, Math::max);
+            // Loses one page of the first copy, so only the resend completes the roster
+            if (sent.incrementAndGet() == 3) return;
+            nodes[1].onPacket(FIRST, ByteBuffer.wrap(data.clone(), 0, length), new MessageView());
+        }, () -> users, (text, length, view) -> {
+        });
+        nodes[1] = new Federation(List.of(FIRST), (data, length, to) -> {
+            nodes[0].onPacket(SECOND, ByteBuffer.wrap(data.clone(), 0, length), new MessageView());
+        }, List::of, (text, length, view) -> {
+        });
+
+        nodes[0].start();
+        nodes[1].start();
+        try {
+            var end = System.currentTimeMillis() + 5000;
+            List<String> roster = List.of();
+            while (System.currentTimeMillis() < end) {
+                roster = nodes[1].remoteUsers().getOrDefault("127.0.0.1:1", List.of());
+                if (!roster.isEmpty()) break;
+                Thread.sleep(20);
+            }
+            assertEquals(users, roster);
+            assertTrue(largest.get() <= Fragments.FRAGMENT_BYTES + ENVELOPE_BYTES, "packet of " + largest.get() + " bytes");
+        } finally {
+            nodes[0].close();
+            nodes[1].close();
+        }
+    }
+}
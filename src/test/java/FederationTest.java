@@ -0,0 +1,175 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Three nodes on loopback, one per engine, each listing all three as peers.
+class FederationTest {
+    private static final int BASE_PORT = 45700;
+    private static final String CHAT_RATE = RateLimiter.PROPERTY_PREFIX + Message.Type.CHAT;
+
+    private final ChatServer[] nodes = new ChatServer[3];
+    private final List<ChatClient> clients = new ArrayList<>();
+
+    @BeforeEach
+    void startNodes() throws Exception {
+        System.setProperty(Federation.PEERS_PROPERTY, "localhost:45700,localhost:45701,localhost:45702");
+        // The burst below is far over the per-client chat limit
+        System.setProperty(CHAT_RATE, "off");
+        for (int i = 0; i < nodes.length; i++) start(i);
+        Thread.sleep(200);
+    }
+
+    @AfterEach
+    void stopNodes() throws Exception {
+        for (var client : clients) client.close();
+        for (var node : nodes) {
+            if (node == null) continue;
+            node.close();
+            node.join();
+        }
+        System.clearProperty(Federation.PEERS_PROPERTY);
+        System.clearProperty(CHAT_RATE);
+    }
+
+    @Test
+    void relaysJoinsAndChatsBetweenNodes() throws Exception {
+        var alice = join(0, "alice");
+        var bob = join(1, "bob");
+        var carol = join(2, "carol");
+
+        awaitNotice(alice, Message.Type.JOIN, "bob");
+        awaitNotice(alice, Message.Type.JOIN, "carol");
+
+        bob.client.sendMessage("hi from bob");
+        for (var client : List.of(alice, carol)) {
+            var message = client.next(Message.Type.CHAT);
+            assertNotNull(message);
+            assertEquals("bob", message.getSender());
+            assertEquals("hi from bob", message.getContent());
+        }
+
+        // Larger than one fragment, so it crosses the link as several reliable frames
+        var big = "x".repeat(5000);
+        carol.client.sendMessage(big);
+        assertEquals(big, alice.next(Message.Type.CHAT).getContent());
+        assertEquals(big, bob.next(Message.Type.CHAT).getContent());
+    }
+
+    @Test
+    void keepsAMessageTooLargeToRelayLocal() throws Exception {
+        var alice = join(0, "alice");
+        var erin = join(0, "erin");
+        var bob = join(1, "bob");
+        awaitNotice(alice, Message.Type.JOIN, "bob");
+
+        // "CHAT:" + 13-digit timestamp + ":alice:" brings the text to exactly the limit, which leaves
+        // no room for the relay envelope
+        var big = "x".repeat(MessageView.MAX_MESSAGE_SIZE - 25);
+        alice.client.sendMessage(big);
+        assertEquals(big, erin.next(Message.Type.CHAT).getContent());
+
+        alice.client.sendMessage("after");
+        assertEquals("after", bob.next(Message.Type.CHAT).getContent());
+        assertEquals(0, (long) nodes[0].getMetrics().getCounters().get("chat_packet_errors_total"));
+    }
+
+    @Test
+    void keepsABurstCompleteAndInOrder() throws Exception {
+        var alice = join(0, "alice");
+        var bob = join(1, "bob");
+        var carol = join(2, "carol");
+
+        var count = 300;
+        for (int i = 0; i < count; i++) alice.client.sendMessage("m" + i);
+        for (var client : List.of(bob, carol)) {
+            // Retransmissions can stretch the burst out on a busy machine, so collect until everything
+            // has arrived or the chats stop, rather than for a fixed window
+            var received = new ArrayList<Message>();
+            Message next;
+            while (received.size() < count && (next = client.next(Message.Type.CHAT)) != null) received.add(next);
+            var seen = new HashSet<String>();
+            var previous = -1;
+            for (var message : received) {
+                assertTrue(seen.add(message.getContent()), "duplicate " + message.getContent());
+                var index = Integer.parseInt(message.getContent().substring(1));
+                assertTrue(index > previous, "out of order at " + index);
+                previous = index;
+            }
+            assertEquals(count, received.size());
+        }
+    }
+
+    @Test
+    void mergesRostersIntoTheUserList() throws Exception {
+        var alice = join(0, "alice");
+        join(1, "bob");
+        join(2, "carol");
+        Thread.sleep(300);
+
+        alice.client.sendMessage(new Message("", "alice", Message.Type.USER_LIST));
+        var list = alice.next(Message.Type.USER_LIST_RESPONSE);
+        assertNotNull(list);
+        for (var user : List.of("alice", "bob", "carol")) assertTrue(list.getContent().contains(user), list.getContent());
+    }
+
+    @Test
+    void relinksWithARestartedNode() throws Exception {
+        var alice = join(0, "alice");
+        var bob = join(1, "bob");
+        var carol = join(2, "carol");
+        awaitNotice(alice, Message.Type.JOIN, "carol");
+
+        bob.close();
+        awaitNotice(alice, Message.Type.LEAVE, "bob");
+        nodes[1].close();
+        nodes[1].join();
+        Thread.sleep(200);
+        start(1);
+        Thread.sleep(100);
+
+        var dave = join(1, "dave");
+        awaitNotice(alice, Message.Type.JOIN, "dave");
+        alice.client.sendMessage("welcome back");
+        assertEquals("welcome back", dave.next(Message.Type.CHAT).getContent());
+        dave.client.sendMessage("dave here");
+        assertEquals("dave here", alice.next(Message.Type.CHAT).getContent());
+        awaitChat(carol, "dave here");
+        assertTrue(nodes[0].getMetrics().getGauges().get("chat_federation_restarts") >= 1);
+    }
+
+    private void start(int index) throws Exception {
+        nodes[index] = ChatServer.create(ChatServer.Engine.values()[index], BASE_PORT + index);
+        nodes[index].start();
+    }
+
+    private ChatClient join(int node, String nickname) throws Exception {
+        var client = new ChatClient(BASE_PORT + node, nickname);
+        clients.add(client);
+        return client;
+    }
+
+    private static void awaitChat(ChatClient client, String text) throws Exception {
+        Message message;
+        do {
+            message = client.next(Message.Type.CHAT);
+            assertNotNull(message, "never got " + text);
+        } while (!message.getContent().equals(text));
+    }
+
+    // Join and leave notices for the client's own node arrive too, so skip to the one naming nickname.
+    private static void awaitNotice(ChatClient client, Message.Type type, String nickname) throws Exception {
+        Message message;
+        do {
+            message = client.next(type);
+            assertNotNull(message, "no " + type + " for " + nickname);
+        } while (!message.getContent().startsWith(nickname + " "));
+    }
+}
@@ -0,0 +1,139 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FragmentsTest {
+    private final InetSocketAddress alice = new InetSocketAddress("127.0.0.1", 5000);
+    private final InetSocketAddress bob = new InetSocketAddress("127.0.0.1", 5001);
+
+    @Test
+    void reassemblesFragmentsInAnyOrder() throws Exception {
+        var data = randomBytes(5 * Fragments.FRAGMENT_BYTES + 17);
+        var fragments = new ArrayList<>(Fragments.split(7, data, data.length));
+        assertEquals(6, fragments.size());
+        Collections.shuffle(fragments, new Random(1));
+
+        var table = new Fragments(4, 1 << 20, 5000);
+        ByteBuffer message = null;
+        for (int i = 0; i < fragments.size(); i++) {
+            message = table.offer(alice, ByteBuffer.wrap(fragments.get(i)));
+            if (i < fragments.size() - 1) assertNull(message);
+        }
+        assertNotNull(message);
+        assertArrayEquals(data, bytes(message));
+        assertEquals(0, table.getPending());
+        assertEquals(0, table.getBytes());
+    }
+
+    @Test
+    void ignoresDuplicateFragments() throws Exception {
+        var data = randomBytes(2 * Fragments.FRAGMENT_BYTES);
+        var fragments = Fragments.split(1, data, data.length);
+        var table = new Fragments(4, 1 << 20, 5000);
+
+        assertNull(table.offer(alice, ByteBuffer.wrap(fragments.get(0))));
+        assertNull(table.offer(alice, ByteBuffer.wrap(fragments.get(0))));
+        assertArrayEquals(data, bytes(table.offer(alice, ByteBuffer.wrap(fragments.get(1)))));
+    }
+
+    @Test
+    void keepsPeersApart() throws Exception {
+        var first = randomBytes(Fragments.FRAGMENT_BYTES + 1);
+        var second = randomBytes(Fragments.FRAGMENT_BYTES + 2);
+        var fromAlice = Fragments.split(3, first, first.length);
+        var fromBob = Fragments.split(3, second, second.length);
+        var table = new Fragments(4, 1 << 20, 5000);
+
+        assertNull(table.offer(alice, ByteBuffer.wrap(fromAlice.get(0))));
+        assertNull(table.offer(bob, ByteBuffer.wrap(fromBob.get(1))));
+        assertArrayEquals(first, bytes(table.offer(alice, ByteBuffer.wrap(fromAlice.get(1)))));
+        assertArrayEquals(second, bytes(table.offer(bob, ByteBuffer.wrap(fromBob.get(0)))));
+    }
+
+    @Test
+    void evictsTheOldestPartialPerPeer() throws Exception {
+        var data = randomBytes(2 * Fragments.FRAGMENT_BYTES);
+        var table = new Fragments(2, 1 << 20, 5000);
+        for (long id = 0; id < 3; id++) table.offer(alice, ByteBuffer.wrap(Fragments.split(id, data, data.length).get(0)));
+
+        assertEquals(2, table.getPending());
+        assertEquals(1, table.getDropped());
+        // Message 0 was evicted, so its second half starts a new partial instead of completing it
+        assertNull(table.offer(alice, ByteBuffer.wrap(Fragments.split(0, data, data.length).get(1))));
+        assertNotNull(table.offer(alice, ByteBuffer.wrap(Fragments.split(2, data, data.length).get(1))));
+    }
+
+    @Test
+    void expiresStalePartials() throws Exception {
+        var data = randomBytes(2 * Fragments.FRAGMENT_BYTES);
+        var fragments = Fragments.split(9, data, data.length);
+        var table = new Fragments(4, 1 << 20, 50);
+
+        table.offer(alice, ByteBuffer.wrap(fragments.get(0)));
+        Thread.sleep(100);
+        assertNull(table.offer(alice, ByteBuffer.wrap(fragments.get(1))));
+        assertEquals(1, table.getDropped());
+    }
+
+    @Test
+    void rejectsMalformedFragments() {
+        var table = new Fragments(4, 1 << 20, 5000);
+        assertThrows(ProtocolException.class, () -> table.offer(alice, frame(1, 2, 2, new byte[10])));
+        assertThrows(ProtocolException.class, () -> table.offer(alice, frame(1, 0, 0, new byte[10])));
+        assertThrows(ProtocolException.class, () -> table.offer(alice, frame(1, 0, Fragments.MAX_FRAGMENTS + 1, new byte[Fragments.FRAGMENT_BYTES])));
+        // Only the last fragment may be short
+        assertThrows(ProtocolException.class, () -> table.offer(alice, frame(1, 0, 2, new byte[10])));
+    }
+
+    @Test
+    void refusesToSplitOversizedMessages() {
+        var length = MessageView.MAX_MESSAGE_SIZE + 1;
+        assertThrows(IllegalArgumentException.class, () -> Fragments.split(1, new byte[length], length));
+        assertEquals(Fragments.MAX_FRAGMENTS, Fragments.split(1, new byte[length - 1], length - 1).size());
+    }
+
+    // MAX_FRAGMENTS full fragments add up to more than MessageView's buffers hold
+    @Test
+    void rejectsReassemblyPastTheMessageLimit() throws Exception {
+        var table = new Fragments(4, 1 << 20, 5000);
+        var count = Fragments.MAX_FRAGMENTS;
+        for (int i = 0; i < count - 1; i++) assertNull(table.offer(alice, frame(1, i, count, new byte[Fragments.FRAGMENT_BYTES])));
+        assertThrows(ProtocolException.class, () -> table.offer(alice, frame(1, count - 1, count, new byte[Fragments.FRAGMENT_BYTES])));
+
+        var limit = MessageView.MAX_MESSAGE_SIZE - (count - 1) * Fragments.FRAGMENT_BYTES;
+        var message = table.offer(alice, frame(1, count - 1, count, new byte[limit]));
+        assertEquals(MessageView.MAX_MESSAGE_SIZE, message.remaining());
+    }
+
+    static ByteBuffer frame(long id, long index, long count, byte[] body) {
+        var frame = ByteBuffer.allocate(Fragments.MAX_FRAME_SIZE + body.length);
+        frame.put(Fragments.MAGIC);
+        Codec.writeVarLong(frame, id);
+        Codec.writeVarLong(frame, index);
+        Codec.writeVarLong(frame, count);
+        return frame.put(body).flip();
+    }
+
+    private static byte[] randomBytes(int length) {
+        var data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        var data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+}
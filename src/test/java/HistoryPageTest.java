@@ -0,0 +1,35 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryPageTest {
+    @Test
+    void capsAnEntryTooLargeForAChunk() throws Exception {
+        var ring = new MessageRing(4, 0);
+        // Three-byte characters, so the cut has to back off to the start of one
+        ring.append(new Message("€".repeat(2000), "alice", Message.Type.CHAT));
+
+        var range = ring.read(0, 10, HistoryPage.CHUNK_BYTES);
+        var capped = HistoryPage.capEntry(range, HistoryPage.CHUNK_BYTES);
+        assertTrue(capped.data.length <= HistoryPage.CHUNK_BYTES);
+        assertEquals(1, capped.count);
+
+        var page = HistoryPage.parse("0:0:1:1:" + new String(capped.data, StandardCharsets.UTF_8));
+        assertEquals(1, page.entries.size());
+        var entry = page.entries.get(0);
+        assertEquals("alice", entry.getSender());
+        assertTrue(entry.getContent().endsWith("€" + HistoryPage.TRUNCATED), entry.getContent());
+    }
+
+    @Test
+    void leavesRangesThatFitAlone() {
+        var ring = new MessageRing(4, 0);
+        ring.append(new Message("short", "alice", Message.Type.CHAT));
+        var range = ring.read(0, 10, HistoryPage.CHUNK_BYTES);
+        assertSame(range, HistoryPage.capEntry(range, HistoryPage.CHUNK_BYTES));
+    }
+}
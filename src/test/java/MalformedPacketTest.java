@@ -0,0 +1,182 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// Packets a well-behaved client never sends, thrown at every engine. Each case checks that the
+// server answers the client again afterwards, so a receive thread that died or hung fails it.
+class MalformedPacketTest {
+    private static final int BASE_PORT = 45710;
+
+    @Test
+    void malformedDirectMessageRecipientIsRejected() throws Exception {
+        for (var engine : ChatServer.Engine.values()) {
+            try (var server = new RunningServer(engine); var mallory = new RawClient(server.port, "mallory", "")) {
+                mallory.send("DIRECT_MESSAGE:0::%zz:hi");
+                assertNotNull(mallory.receive("SYSTEM:", "Invalid recipient"), engine + " did not reject the recipient");
+                mallory.assertAlive(engine);
+            }
+        }
+    }
+
+    @Test
+    void forgedWindowBaseDoesNotHangTheEndpoint() throws Exception {
+        for (var engine : ChatServer.Engine.values()) {
+            try (var server = new RunningServer(engine); var mallory = new RawClient(server.port, "mallory", ReliableEndpoint.CAPABILITY)) {
+                var frame = ByteBuffer.allocate(64).put(ReliableEndpoint.DATA);
+                Codec.writeVarLong(frame, (1L << 60) + 5);
+                Codec.writeVarLong(frame, 5);
+                frame.put(("PING:" + System.currentTimeMillis() + "::").getBytes(StandardCharsets.UTF_8));
+                mallory.send(Arrays.copyOf(frame.array(), frame.position()));
+                mallory.assertAlive(engine);
+            }
+        }
+    }
+
+    @Test
+    void oversizedReassemblyIsRejected() throws Exception {
+        for (var engine : ChatServer.Engine.values()) {
+            try (var server = new RunningServer(engine); var mallory = new RawClient(server.port, "mallory", Fragments.CAPABILITY)) {
+                // Every fragment is full, so the whole comes to more than MAX_PACKET_SIZE
+                var count = Fragments.MAX_FRAGMENTS;
+                var body = new byte[Fragments.FRAGMENT_BYTES];
+                Arrays.fill(body, (byte) 'x');
+                var header = "CHAT:0::".getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(header, 0, body, 0, header.length);
+                for (int i = 0; i < count; i++) {
+                    var frame = FragmentsTest.frame(1, i, count, body);
+                    mallory.send(Arrays.copyOf(frame.array(), frame.limit()));
+                    if (i == 0) Arrays.fill(body, 0, header.length, (byte) 'x');
+                }
+                mallory.assertAlive(engine);
+                assertEquals(0, server.packetErrors(), engine + " threw while handling the message");
+            }
+        }
+    }
+
+    @Test
+    void messageThatOutgrowsTheLimitUnderItsNicknameIsRejected() throws Exception {
+        var nickname = "m".repeat(1000);
+        var text = "CHAT:0::" + "x".repeat(MessageView.MAX_MESSAGE_SIZE - 600);
+        var data = text.getBytes(StandardCharsets.UTF_8);
+        for (var engine : ChatServer.Engine.values()) {
+            try (var server = new RunningServer(engine); var mallory = new RawClient(server.port, nickname, Fragments.CAPABILITY)) {
+                for (var fragment : Fragments.split(1, data, data.length)) mallory.send(fragment);
+                assertNotNull(mallory.receive("SYSTEM:", "Message too large"), engine + " did not reject the message");
+                assertEquals(0, server.packetErrors(), engine + " threw while handling the message");
+            }
+        }
+    }
+
+    @Test
+    void roomCommandsBeforeHelloAreRejected() throws Exception {
+        for (var engine : ChatServer.Engine.values()) {
+            try (var server = new RunningServer(engine); var stranger = new RawClient(server.port)) {
+                stranger.send("ROOM_JOIN:0::lobby:");
+                assertNotNull(stranger.receive("SYSTEM:", "Join the chat"), engine + " let a stranger into a room");
+                assertEquals(0L, (long) server.server.getMetrics().getGauges().get("chat_rooms"), engine + " created the room");
+                stranger.assertAlive(engine);
+            }
+        }
+    }
+
+    static final class RunningServer implements Closeable {
+        final ChatServer server;
+        final int port;
+
+        RunningServer(ChatServer.Engine engine) throws IOException {
+            port = BASE_PORT + engine.ordinal();
+            server = ChatServer.create(engine, port);
+            server.start();
+        }
+
+        long packetErrors() {
+            return server.getMetrics().getCounters().get("chat_packet_errors_total");
+        }
+
+        @Override
+        public void close() {
+            server.close();
+            try {
+                server.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Speaks the text wire format over a bare socket, so a test can send anything at all.
+    static final class RawClient implements Closeable {
+        private final DatagramSocket socket = new DatagramSocket();
+        private final InetSocketAddress server;
+        private final byte[] buffer = new byte[65535];
+
+        // A client that has not sent HELLO.
+        RawClient(int port) throws IOException {
+            server = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(3000);
+        }
+
+        RawClient(int port, String nickname, String capabilities) throws IOException {
+            this(port);
+            send("HELLO:" + System.currentTimeMillis() + ":" + capabilities + ":" + nickname);
+            assertNotNull(receive("WELCOME:", ""), "no WELCOME for " + nickname);
+        }
+
+        void send(String text) throws IOException {
+            send(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void send(byte[] data) throws IOException {
+            socket.send(new DatagramPacket(data, data.length, server));
+        }
+
+        // The next text packet that starts with prefix and contains text, or null on timeout.
+        String receive(String prefix, String text) throws IOException {
+            var packet = new DatagramPacket(buffer, buffer.length);
+            var end = System.currentTimeMillis() + 3000;
+            while (System.currentTimeMillis() < end) {
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    return null;
+                }
+                var received = text(ByteBuffer.wrap(buffer, 0, packet.getLength()));
+                if (received.startsWith(prefix) && received.contains(text)) return received;
+            }
+            return null;
+        }
+
+        // Reliable traffic arrives in DATA frames, which are never acknowledged; the server simply
+        // gives up on them.
+        private static String text(ByteBuffer packet) throws IOException {
+            if (packet.get(0) == ReliableEndpoint.DATA) {
+                packet.get();
+                Codec.readVarLong(packet);
+                Codec.readVarLong(packet);
+            }
+            return StandardCharsets.UTF_8.decode(packet).toString();
+        }
+
+        void assertAlive(ChatServer.Engine engine) throws IOException {
+            send("PING:" + System.currentTimeMillis() + "::");
+            assertNotNull(receive("PONG:", ""), engine + " stopped answering");
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+}
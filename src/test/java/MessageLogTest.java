@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageLogTest {
+    private static final long SEGMENT_BYTES = 16 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysAcrossSegmentsAfterReopening() throws Exception {
+        try (var log = MessageLog.open(directory, SEGMENT_BYTES, 100)) {
+            for (int i = 0; i < 1000; i++) assertEquals(i, append(log, "message " + i));
+            assertTrue(log.segmentCount() > 1);
+        }
+
+        try (var log = MessageLog.open(directory, SEGMENT_BYTES, 100)) {
+            assertEquals(1000, log.tail());
+            var replayed = replay(log, 990);
+            assertEquals(10, replayed.size());
+            assertEquals("message 990", replayed.get(0));
+            assertEquals("message 999", replayed.get(9));
+            assertEquals(1000, append(log, "after restart"));
+        }
+    }
+
+    @Test
+    void truncatesATornRecordOnOpen() throws Exception {
+        try (var log = MessageLog.open(directory, SEGMENT_BYTES, 100)) {
+            for (int i = 0; i < 20; i++) append(log, "message " + i);
+        }
+        var segment = newestSegment();
+        var size = Files.size(segment);
+        // A crash halfway through a write leaves a record header with only part of its payload
+        try (var channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(30).putInt(100).putInt(0).putLong(20).putLong(0).flip());
+        }
+
+        try (var log = MessageLog.open(directory, SEGMENT_BYTES, 100)) {
+            assertEquals(20, log.tail());
+            assertEquals(size, Files.size(segment));
+            assertEquals(20, append(log, "after crash"));
+            var replayed = replay(log, 18);
+            assertEquals(List.of("message 18", "message 19", "after crash"), replayed);
+        }
+    }
+
+    @Test
+    void dropsARecordWithABadChecksum() throws Exception {
+        try (var log = MessageLog.open(directory, SEGMENT_BYTES, 100)) {
+            for (int i = 0; i < 5; i++) append(log, "message " + i);
+        }
+        var segment = newestSegment();
+        var size = Files.size(segment);
+        // Flip a payload byte of the last record, as a write the disk never finished could
+        try (var channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), size - 1);
+        }
+
+        try (var log = MessageLog.open(directory, SEGMENT_BYTES, 100)) {
+            assertEquals(4, log.tail());
+            assertEquals(List.of("message 3"), replay(log, 3));
+        }
+    }
+
+    @Test
+    void retiresTheOldestSegments() throws Exception {
+        try (var log = MessageLog.open(directory, SEGMENT_BYTES, 3)) {
+            for (int i = 0; i < 2000; i++) append(log, "message " + i);
+            log.flush();
+            assertTrue(log.segmentCount() <= 3, () -> log.segmentCount() + " segments");
+            assertTrue(log.oldest() > 0);
+            assertEquals("message " + log.oldest(), replay(log, 0).get(0));
+        }
+    }
+
+    private Path newestSegment() throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".log")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+    }
+
+    private static long append(MessageLog log, String text) throws Exception {
+        var data = text.getBytes(StandardCharsets.UTF_8);
+        return log.append(data, data.length, System.currentTimeMillis());
+    }
+
+    private static List<String> replay(MessageLog log, long from) throws Exception {
+        var texts = new ArrayList<String>();
+        log.replay(from, (seq, time, data, length) -> texts.add(new String(data, 0, length, StandardCharsets.UTF_8)));
+        return texts;
+    }
+}
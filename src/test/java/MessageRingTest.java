@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageRingTest {
+    @Test
+    void snapshotKeepsTheNewestEntriesThatFit() {
+        var ring = new MessageRing(4, 0);
+        for (int i = 0; i < 6; i++) ring.append(entry(i, 10), 11 + digits(i));
+
+        assertEquals(4, ring.size());
+        assertEquals(2, ring.oldest());
+        var snapshot = new String(ring.snapshot(1 << 20), StandardCharsets.UTF_8);
+        assertEquals(text(2, 10) + "||" + text(3, 10) + "||" + text(4, 10) + "||" + text(5, 10) + "||", snapshot);
+        assertEquals(text(5, 10) + "||", new String(ring.snapshot(16), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void logIsSizedForTheLargestEntry() {
+        assertTrue(new MessageRing(16, 0).logBytes() > 2 * MessageView.MAX_PACKET_SIZE);
+
+        var ring = new MessageRing(16, 4096, 100);
+        assertEquals(4096, ring.logBytes());
+        assertEquals(0L, ring.append(entry(0, 98), 100));
+        assertThrows(IllegalArgumentException.class, () -> ring.append(entry(1, 99), 101));
+    }
+
+    @Test
+    void readPagesFromASequence() {
+        var ring = new MessageRing(8, 0);
+        for (int i = 0; i < 5; i++) ring.append(entry(i, 10), 11 + digits(i));
+
+        var range = ring.read(1, 2, 1 << 20);
+        assertEquals(1, range.firstSeq);
+        assertEquals(2, range.count);
+        assertEquals(text(1, 10) + "||" + text(2, 10) + "||", new String(range.data, StandardCharsets.UTF_8));
+        assertEquals(0, ring.read(5, 10, 1 << 20).count);
+    }
+
+    @Test
+    void sequenceAtFindsTheFirstEntryAtOrAfterATime() {
+        var ring = new MessageRing(8, 0);
+        for (int i = 0; i < 5; i++) ring.append(entry(i, 1), 2 + digits(i), 1000 + 10 * i);
+
+        assertEquals(0, ring.sequenceAt(0));
+        assertEquals(2, ring.sequenceAt(1015));
+        assertEquals(5, ring.sequenceAt(5000));
+    }
+
+    // One writer laps the byte log over and over while readers copy the entries it overwrites next. Every entry's bytes are
+    // derived from its sequence number, so a copy that raced an overwrite shows up as a mismatch.
+    @Test
+    void readersNeverSeeTornEntries() throws Exception {
+        // Far more entries than the byte log holds, so the writer is always overwriting the oldest bytes
+        var ring = new MessageRing(64, 0);
+        var failure = new AtomicReference<String>();
+        var deadline = System.currentTimeMillis() + 1500;
+
+        var writer = new Thread(() -> {
+            for (long seq = 0; System.currentTimeMillis() < deadline && failure.get() == null; seq++) {
+                var size = 4000 + (int) (seq * 7919 % 20000);
+                ring.append(entry(seq, size), size + 1 + digits(seq));
+            }
+        });
+        var readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            var pages = r == 0;
+            readers[r] = new Thread(() -> {
+                while (System.currentTimeMillis() < deadline && failure.get() == null) {
+                    String error;
+                    if (pages) {
+                        var range = ring.read(ring.oldest(), 6, 1 << 20);
+                        error = check(range.data, range.firstSeq, range.count);
+                    } else {
+                        error = check(ring.snapshot(120_000), -1, -1);
+                    }
+                    if (error != null) failure.compareAndSet(null, error);
+                }
+            });
+        }
+        writer.start();
+        for (var reader : readers) reader.start();
+        writer.join();
+        for (var reader : readers) reader.join();
+
+        assertNull(failure.get());
+        assertTrue(ring.tail() > 100, "the writer lapped the log");
+    }
+
+    // Checks that data holds whole entries in sequence; firstSeq and count are checked when known.
+    private static String check(byte[] data, long firstSeq, int count) {
+        var entries = new String(data, StandardCharsets.ISO_8859_1).split("\\|\\|", -1);
+        if (!entries[entries.length - 1].isEmpty()) return "data does not end with a separator";
+        var seen = entries.length - 1;
+        if (count >= 0 && seen != count) return "expected " + count + " entries, found " + seen;
+
+        var expectedSeq = firstSeq;
+        for (int i = 0; i < seen; i++) {
+            var entry = entries[i];
+            var colon = entry.indexOf(':');
+            if (colon < 0) return "entry without a header: " + abbreviate(entry);
+            long seq;
+            try {
+                seq = Long.parseLong(entry.substring(0, colon));
+            } catch (NumberFormatException e) {
+                return "garbled header: " + abbreviate(entry);
+            }
+            if (expectedSeq >= 0 && seq != expectedSeq) return "expected entry " + expectedSeq + ", found " + seq;
+            expectedSeq = seq + 1;
+            var fill = fill(seq);
+            for (int j = colon + 1; j < entry.length(); j++) {
+                if (entry.charAt(j) != fill) return "entry " + seq + " is torn at byte " + j;
+            }
+        }
+        return null;
+    }
+
+    private static String abbreviate(String entry) {
+        return entry.length() > 40 ? entry.substring(0, 40) + "..." : entry;
+    }
+
+    private static byte[] entry(long seq, int size) {
+        return text(seq, size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String text(long seq, int size) {
+        return seq + ":" + String.valueOf(fill(seq)).repeat(size);
+    }
+
+    private static char fill(long seq) {
+        return (char) ('a' + seq % 26);
+    }
+
+    private static int digits(long seq) {
+        return Long.toString(seq).length();
+    }
+}
@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// The receive path wraps every packet in one reused MessageView and re-encodes it into the view's
+// own buffers, so at steady state it should not allocate at all. The JVM's per-thread allocation
+// counter makes that checkable; a little slack covers the counter's own bookkeeping.
+class MessageViewAllocationTest {
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 100_000;
+    private static final long SLACK_BYTES = 4096;
+
+    @Test
+    void wrapAndEncodeDoNotAllocate() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        var message = new Message("the build is green again, shipping after lunch ✔", "alice", Message.Type.CHAT);
+        var text = ByteBuffer.wrap(message.encode(false));
+        var binary = ByteBuffer.wrap(message.encode(true));
+        var view = new MessageView();
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) sink += roundTrip(view, text, binary);
+
+        var thread = Thread.currentThread().getId();
+        var before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) sink += roundTrip(view, text, binary);
+        var allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(sink > 0);
+        assertTrue(allocated < SLACK_BYTES, () -> allocated + " bytes allocated over " + ITERATIONS + " packets");
+    }
+
+    @Test
+    void encodeKeepsContentAndReplacesSender() throws Exception {
+        var packet = ByteBuffer.wrap(new Message("hello", "mallory", Message.Type.CHAT).encode(false));
+        var view = new MessageView().wrap(packet);
+
+        var text = view.encode(false, "alice");
+        var decoded = Message.decode(text, "nobody");
+        assertEquals("hello", decoded.getContent());
+        assertEquals("alice", decoded.getSender());
+        assertEquals(Message.Type.CHAT, decoded.getType());
+
+        var binary = Message.decode(view.encode(true, "alice"), "nobody");
+        assertEquals("hello", binary.getContent());
+        assertEquals("alice", binary.getSender());
+    }
+
+    private static int roundTrip(MessageView view, ByteBuffer text, ByteBuffer binary) throws Exception {
+        var size = view.wrap(text).getContent().length();
+        size += view.encode(true, "bob").remaining();
+        size += view.wrap(binary).getSender().length();
+        size += view.encode(false, "bob").remaining();
+        return size;
+    }
+}
@@ -0,0 +1,145 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long NOW = 1000 * SECOND;
+
+    private final InetSocketAddress alice = new InetSocketAddress("127.0.0.1", 5000);
+
+    @Test
+    void parsesLimits() {
+        assertNull(RateLimiter.Limit.parse("off"));
+        assertNull(RateLimiter.Limit.parse(null));
+        assertNull(RateLimiter.Limit.parse("0/5"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimiter.Limit.parse("fast"));
+    }
+
+    @Test
+    void admitsTheBurstThenTheRate() {
+        var limiter = limiter("10/20", null);
+
+        assertEquals(20, admitted(limiter, alice, NOW, 100));
+        assertEquals(0, admitted(limiter, alice, NOW, 10));
+        assertEquals(10, admitted(limiter, alice, NOW + SECOND, 100));
+    }
+
+    @Test
+    void typesWithoutALimitAreAlwaysAdmitted() {
+        var limiter = limiter("1/1", null);
+
+        assertFalse(limiter.isLimited(Message.Type.PONG));
+        for (int i = 0; i < 100; i++) assertTrue(limiter.admit(alice, Message.Type.PONG, NOW));
+    }
+
+    @Test
+    void addressBudgetCoversEveryPacket() {
+        var limiter = limiter(null, "5/5");
+
+        var admitted = 0;
+        for (int i = 0; i < 20; i++) if (limiter.admitPacket(alice, NOW)) admitted++;
+        assertEquals(5, admitted);
+        assertTrue(limiter.admitPacket(new InetSocketAddress("127.0.0.2", 5000), NOW));
+    }
+
+    @Test
+    void changingPortsOnlyBuysTheHostShare() {
+        var limiter = limiter("10/20", "5/5");
+
+        var chats = 0;
+        var packets = 0;
+        for (int port = 5000; port < 5100; port++) {
+            var source = new InetSocketAddress("127.0.0.1", port);
+            chats += admitted(limiter, source, NOW, 100);
+            for (int i = 0; i < 100; i++) if (limiter.admitPacket(source, NOW)) packets++;
+        }
+        // Twice the per-port burst, since the test limiter uses a host share of 2
+        assertEquals(40, chats);
+        assertEquals(10, packets);
+        assertEquals(20, admitted(limiter, new InetSocketAddress("127.0.0.2", 5000), NOW, 100));
+    }
+
+    @Test
+    void aPacketTheHostRefusesCostsItsPortNothing() {
+        var limiter = limiter("1/3", null);
+        var bob = new InetSocketAddress("127.0.0.1", 5001);
+        var carol = new InetSocketAddress("127.0.0.1", 5002);
+
+        // Two ports take the whole host share between them
+        assertEquals(3, admitted(limiter, alice, NOW, 10));
+        assertEquals(3, admitted(limiter, bob, NOW, 10));
+        assertEquals(0, admitted(limiter, carol, NOW, 10));
+
+        // Two seconds refill four host tokens, and carol's own burst is still untouched
+        assertEquals(3, admitted(limiter, carol, NOW + 2 * SECOND, 10));
+    }
+
+    @Test
+    void scalesRateAndBurst() {
+        var limit = RateLimiter.Limit.parse("10/20").scaled(4);
+        assertEquals(SECOND / 40, limit.intervalNanos);
+        assertEquals(SECOND / 40 * 79, limit.toleranceNanos);
+    }
+
+    @Test
+    void globalBudgetCoversEveryAddress() {
+        var types = new RateLimiter.Limit[Message.Type.values().length];
+        var limiter = new RateLimiter(RateLimiter.Limit.parse("10/10"), null, types, 1);
+
+        var admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.admitPacket(new InetSocketAddress("10.0.0." + (i % 50 + 1), 4000), NOW)) admitted++;
+        }
+        assertEquals(10, admitted);
+    }
+
+    @Test
+    void purgesIdleAddressesInsteadOfGrowing() throws Exception {
+        var limiter = limiter(null, "1000/2000");
+        for (int i = 0; i < 100_000; i++) {
+            var address = InetAddress.getByAddress(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+            limiter.admitPacket(new InetSocketAddress(address, 4000), NOW);
+        }
+        // One row for the address and port and one for the address alone
+        assertEquals(200_000, limiter.size());
+
+        // Ten seconds on every bucket is full again, so the first stripe that fills up drops them
+        for (int i = 0; i < 50_000; i++) {
+            var address = InetAddress.getByAddress(new byte[]{11, (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+            limiter.admitPacket(new InetSocketAddress(address, 4000), NOW + 10 * SECOND);
+        }
+        assertTrue(limiter.size() < 200_000, () -> limiter.size() + " rows");
+    }
+
+    @Test
+    void serverTellsAClientItsChatsWereDropped() throws Exception {
+        try (var server = new MalformedPacketTest.RunningServer(ChatServer.Engine.CLASSIC);
+             var mallory = new MalformedPacketTest.RawClient(server.port, "mallory", ReliableEndpoint.CAPABILITY)) {
+            // Past the default burst of 60
+            for (int i = 0; i < 100; i++) mallory.send("CHAT:0::flood " + i);
+            assertNotNull(mallory.receive("SYSTEM:", "Rate limited"), "no rate limit notice");
+        }
+    }
+
+    private static RateLimiter limiter(String chat, String address) {
+        var types = new RateLimiter.Limit[Message.Type.values().length];
+        types[Message.Type.CHAT.ordinal()] = RateLimiter.Limit.parse(chat);
+        types[Message.Type.PING.ordinal()] = RateLimiter.Limit.parse("1/1");
+        return new RateLimiter(null, RateLimiter.Limit.parse(address), types, 2);
+    }
+
+    private static int admitted(RateLimiter limiter, InetSocketAddress source, long now, int attempts) {
+        var admitted = 0;
+        for (int i = 0; i < attempts; i++) if (limiter.admit(source, Message.Type.CHAT, now)) admitted++;
+        return admitted;
+    }
+}
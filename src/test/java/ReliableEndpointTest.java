@@ -0,0 +1,197 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two endpoints wired back to back through lists of captured frames, so every loss, reordering
+// and duplicate is chosen by the test instead of the network.
+class ReliableEndpointTest {
+    private final InetSocketAddress peer = new InetSocketAddress("127.0.0.1", 5000);
+    private final List<byte[]> sent = new ArrayList<>();
+    private final List<byte[]> acks = new ArrayList<>();
+    private ReliableEndpoint sender;
+    private ReliableEndpoint receiver;
+
+    @BeforeEach
+    void setUp() {
+        sender = new ReliableEndpoint(peer, (data, length, address) -> sent.add(Arrays.copyOf(data, length)));
+        receiver = new ReliableEndpoint(peer, (data, length, address) -> acks.add(Arrays.copyOf(data, length)));
+    }
+
+    @Test
+    void deliversInOrderFrames() throws Exception {
+        for (int i = 0; i < 5; i++) send("m" + i);
+
+        for (int i = 0; i < 5; i++) {
+            var frame = ByteBuffer.wrap(sent.get(i));
+            assertEquals(ReliableEndpoint.DELIVER, receiver.onData(frame));
+            assertEquals("m" + i, text(frame));
+            assertNull(receiver.pollReady());
+        }
+    }
+
+    @Test
+    void buffersOutOfOrderFramesUntilTheGapFills() throws Exception {
+        for (int i = 0; i < 3; i++) send("m" + i);
+
+        assertEquals(ReliableEndpoint.BUFFERED, receiver.onData(ByteBuffer.wrap(sent.get(2))));
+        assertEquals(ReliableEndpoint.BUFFERED, receiver.onData(ByteBuffer.wrap(sent.get(1))));
+        assertEquals(0, expectedInLastAck());
+        assertEquals(0b11L, sackInLastAck(), "early frames are acknowledged selectively");
+
+        var first = ByteBuffer.wrap(sent.get(0));
+        assertEquals(ReliableEndpoint.DELIVER, receiver.onData(first));
+        assertEquals("m0", text(first));
+        assertEquals("m1", text(receiver.pollReady()));
+        assertEquals("m2", text(receiver.pollReady()));
+        assertNull(receiver.pollReady());
+    }
+
+    @Test
+    void reportsDuplicatesAndReacknowledgesThem() throws Exception {
+        send("once");
+        assertEquals(ReliableEndpoint.DELIVER, receiver.onData(ByteBuffer.wrap(sent.get(0))));
+
+        acks.clear();
+        assertEquals(ReliableEndpoint.DUPLICATE, receiver.onData(ByteBuffer.wrap(sent.get(0))));
+        assertEquals(1, acks.size());
+        assertEquals(1, expectedInLastAck());
+    }
+
+    @Test
+    void holdsFramesBeyondTheWindowUntilAcknowledged() throws Exception {
+        for (int i = 0; i < 100; i++) send("m" + i);
+        assertEquals(64, sent.size());
+        assertEquals(36, sender.getBacklog());
+
+        for (int i = 0; i < 64; i++) receiver.onData(ByteBuffer.wrap(sent.get(i)));
+        receiver.tick();
+        sender.onAck(ByteBuffer.wrap(acks.get(acks.size() - 1)));
+        assertEquals(100, sent.size());
+        assertEquals(0, sender.getBacklog());
+        assertEquals(0, sender.getLost());
+
+        for (int i = 64; i < 100; i++) {
+            var frame = ByteBuffer.wrap(sent.get(i));
+            assertEquals(ReliableEndpoint.DELIVER, receiver.onData(frame));
+            assertEquals("m" + i, text(frame));
+        }
+    }
+
+    @Test
+    void refusesFramesOnceTheBacklogIsFull() {
+        var payload = new byte[1];
+        var accepted = 0;
+        while (sender.send(payload, 1)) accepted++;
+        assertEquals(64 + 1024, accepted);
+        assertEquals(1, sender.getLost());
+    }
+
+    @Test
+    void receiverDropsFramesBeyondItsWindow() throws Exception {
+        assertEquals(ReliableEndpoint.DROPPED, receiver.onData(data(65, 65)));
+    }
+
+    @Test
+    void skipsFramesTheSenderAbandoned() throws Exception {
+        for (int i = 0; i < 2; i++) send("m" + i);
+
+        // A window base of 1 tells the receiver the sender gave up on seq 0
+        assertEquals(ReliableEndpoint.BUFFERED, receiver.onData(data(64, 63)));
+        var second = ByteBuffer.wrap(sent.get(1));
+        assertEquals(ReliableEndpoint.DELIVER, receiver.onData(second));
+        assertEquals("m1", text(second));
+    }
+
+    @Test
+    @Timeout(5)
+    void forgedWindowBaseSkipsAtMostOneWindow() throws Exception {
+        // A base near 2^60 used to step the receiver forward one sequence number at a time
+        assertEquals(ReliableEndpoint.DROPPED, receiver.onData(data(1L << 60, 0)));
+        assertEquals(64, expectedInLastTick());
+
+        assertEquals(ReliableEndpoint.DELIVER, receiver.onData(data(64, 0)));
+    }
+
+    @Test
+    void rejectsABaseAheadOfTheSequence() {
+        assertThrows(ProtocolException.class, () -> receiver.onData(data(5, 6)));
+        assertThrows(ProtocolException.class, () -> receiver.onData(data(-1, 0)));
+    }
+
+    @Test
+    void acknowledgedFramesAreNotRetransmitted() throws Exception {
+        for (int i = 0; i < 3; i++) send("m" + i);
+        for (int i = 0; i < 3; i++) receiver.onData(ByteBuffer.wrap(sent.get(i)));
+        receiver.tick();
+        sender.onAck(ByteBuffer.wrap(acks.get(acks.size() - 1)));
+
+        sent.clear();
+        Thread.sleep(sender.getRto() + 50);
+        sender.tick();
+        assertTrue(sent.isEmpty());
+        assertEquals(0, sender.getRetransmits());
+    }
+
+    @Test
+    void retransmitsUnacknowledgedFrames() throws Exception {
+        send("lost");
+        sent.clear();
+
+        Thread.sleep(sender.getRto() + 50);
+        sender.tick();
+        assertEquals(1, sent.size());
+        assertEquals(1, sender.getRetransmits());
+
+        var frame = ByteBuffer.wrap(sent.get(0));
+        assertEquals(ReliableEndpoint.DELIVER, receiver.onData(frame));
+        assertEquals("lost", text(frame));
+    }
+
+    private static ByteBuffer data(long seq, long back) {
+        var frame = ByteBuffer.allocate(32).put(ReliableEndpoint.DATA);
+        Codec.writeVarLong(frame, seq);
+        Codec.writeVarLong(frame, back);
+        return frame.flip();
+    }
+
+    private long expectedInLastTick() throws Exception {
+        acks.clear();
+        receiver.tick();
+        return expectedInLastAck();
+    }
+
+    private void send(String text) {
+        var payload = text.getBytes(StandardCharsets.UTF_8);
+        sender.send(payload, payload.length);
+    }
+
+    private static String text(ByteBuffer payload) {
+        return StandardCharsets.UTF_8.decode(payload).toString();
+    }
+
+    private long expectedInLastAck() throws Exception {
+        var ack = ByteBuffer.wrap(acks.get(acks.size() - 1));
+        assertEquals(ReliableEndpoint.ACK, ack.get());
+        return Codec.readVarLong(ack);
+    }
+
+    private long sackInLastAck() throws Exception {
+        var ack = ByteBuffer.wrap(acks.get(acks.size() - 1));
+        ack.get();
+        Codec.readVarLong(ack);
+        return ack.getLong();
+    }
+}
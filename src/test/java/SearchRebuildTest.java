@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// A server restarted on an existing log only warms its ring from the tail and indexes the rest of
+// the log in the background; searches must find entries from well before the ring once it is done.
+class SearchRebuildTest {
+    private static final int PORT = 45720;
+    private static final String CHAT_RATE = RateLimiter.PROPERTY_PREFIX + Message.Type.CHAT;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void configure() {
+        System.setProperty(ChatServer.LOG_DIR_PROPERTY, directory.toString());
+        System.setProperty(ChatServer.HISTORY_PROPERTY, "16");
+        System.setProperty(CHAT_RATE, "off");
+    }
+
+    @AfterEach
+    void clear() {
+        System.clearProperty(ChatServer.LOG_DIR_PROPERTY);
+        System.clearProperty(ChatServer.HISTORY_PROPERTY);
+        System.clearProperty(CHAT_RATE);
+    }
+
+    @Test
+    void findsEntriesOlderThanTheRingAfterRestart() throws Exception {
+        var server = ChatServer.create(ChatServer.Engine.CLASSIC, PORT);
+        server.start();
+        try (var alice = new ChatClient(PORT, "alice")) {
+            alice.client.sendMessage("the zebra crossed first");
+            for (int i = 0; i < 100; i++) {
+                alice.client.sendMessage("filler " + i);
+                if (i % 10 == 9) Thread.sleep(5);
+            }
+            assertEquals(1, search(alice, "zebra").entries.size());
+        } finally {
+            server.close();
+            server.join();
+        }
+
+        server = ChatServer.create(ChatServer.Engine.CLASSIC, PORT);
+        server.start();
+        try (var bob = new ChatClient(PORT, "bob")) {
+            var page = search(bob, "zebra");
+            assertEquals(1, page.entries.size());
+            assertEquals("the zebra crossed first", page.entries.get(0).getContent());
+            assertEquals("filler 99", search(bob, "filler").entries.get(0).getContent());
+        } finally {
+            server.close();
+            server.join();
+        }
+    }
+
+    // Repeats the search while the server answers that it is still indexing, or has not yet
+    // recorded the chats sent just before.
+    private static SearchPage search(ChatClient client, String terms) throws Exception {
+        var end = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < end) {
+            client.client.search(terms, null, null, null, Long.MAX_VALUE, 100);
+            var message = client.next(Message.Type.SEARCH_RESULT, Message.Type.SYSTEM);
+            assertNotNull(message, "no search result");
+            if (message.getType() == Message.Type.SEARCH_RESULT) {
+                var page = SearchPage.parse(message.getContent());
+                if (!page.entries.isEmpty()) return page;
+            }
+            Thread.sleep(50);
+        }
+        fail("no matches for " + terms);
+        return null;
+    }
+}
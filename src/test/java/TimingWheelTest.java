@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+    private static final long TICK = 10;
+    private static final long START = 1_000_000;
+
+    @Test
+    void firesAtTheDeadlineTick() {
+        var wheel = new TimingWheel<String>(TICK, START);
+        wheel.schedule("a", START + 35);
+
+        assertTrue(wheel.advance(START + 29).isEmpty());
+        assertEquals(List.of("a"), wheel.advance(START + 30));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void pastDeadlinesFireOnTheNextTick() {
+        var wheel = new TimingWheel<String>(TICK, START);
+        wheel.schedule("late", START - 1000);
+
+        assertEquals(List.of("late"), wheel.advance(START + TICK));
+    }
+
+    @Test
+    void cancelledTimeoutsNeverFire() {
+        var wheel = new TimingWheel<String>(TICK, START);
+        var timeout = wheel.schedule("a", START + 100);
+        wheel.schedule("b", START + 100);
+        wheel.cancel(timeout);
+
+        assertFalse(timeout.isPending());
+        assertEquals(List.of("b"), wheel.advance(START + 1000));
+        wheel.cancel(timeout);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void rescheduleMovesTheDeadline() {
+        var wheel = new TimingWheel<String>(TICK, START);
+        var timeout = wheel.schedule("idle", START + 100);
+        wheel.reschedule(timeout, START + 10_000);
+
+        assertTrue(wheel.advance(START + 9_990).isEmpty());
+        assertEquals(List.of("idle"), wheel.advance(START + 10_000));
+    }
+
+    // Deadlines spread over eight orders of magnitude exercise every level and the clamp past the
+    // outermost wheel. Nothing may fire before its tick or more than one advance step late.
+    @Test
+    void cascadesAcrossLevels() {
+        var random = new Random(3);
+        var now = START;
+        var wheel = new TimingWheel<long[]>(TICK, now);
+        var timeouts = new ArrayList<TimingWheel.Timeout<long[]>>();
+        var count = 50_000;
+        for (int i = 0; i < count; i++) {
+            var deadline = now + (long) Math.pow(10, random.nextDouble() * 8);
+            timeouts.add(wheel.schedule(new long[]{deadline, i}, deadline));
+        }
+        var cancelled = new HashSet<Long>();
+        for (int i = 0; i < count; i += 7) {
+            wheel.cancel(timeouts.get(i));
+            cancelled.add((long) i);
+        }
+
+        var fired = 0;
+        var maxStep = 50_000;
+        var end = START + 200_000_000L;
+        while (now < end) {
+            now += TICK + random.nextInt(maxStep);
+            for (var value : wheel.advance(now)) {
+                fired++;
+                assertFalse(cancelled.contains(value[1]), "cancelled timeout fired");
+                assertTrue(value[0] / TICK <= now / TICK, "fired early");
+                assertTrue(now - value[0] <= maxStep + 2 * TICK, "fired late");
+            }
+        }
+        assertEquals(count - cancelled.size(), fired);
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,51 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TranscriptTest {
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void clear() {
+        System.clearProperty(Transcript.PATH_PROPERTY);
+    }
+
+    @Test
+    void dropsATornRecordOnOpen() throws Exception {
+        var path = directory.resolve("transcript.bin");
+        System.setProperty(Transcript.PATH_PROPERTY, path.toString());
+        try (var transcript = Transcript.open()) {
+            for (int i = 0; i < 3; i++) transcript.append(new Message("line " + i, "alice", Message.Type.CHAT));
+        }
+        var complete = Files.size(path);
+
+        // A record header promising more bytes than made it to disk
+        var torn = ByteBuffer.allocate(14).putInt(100).put(new byte[10]).array();
+        Files.write(path, torn, StandardOpenOption.APPEND);
+
+        try (var transcript = Transcript.open()) {
+            assertEquals(complete, Files.size(path));
+            assertEquals(List.of("line 0", "line 1", "line 2"), read(transcript));
+
+            transcript.append(new Message("after", "alice", Message.Type.CHAT));
+            assertEquals(List.of("line 0", "line 1", "line 2", "after"), read(transcript));
+        }
+    }
+
+    private static List<String> read(Transcript transcript) throws Exception {
+        var contents = new ArrayList<String>();
+        transcript.read(transcript.flush(), message -> contents.add(message.getContent()), (done, total) -> {
+        });
+        return contents;
+    }
+}